@@ -0,0 +1,362 @@
+package sample;
+
+import sun.misc.Unsafe;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.TargetDataLine;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Captures audio once and fans it out to every consumer.
+ *
+ * A single capture thread reads fixed size frames into a ring of preallocated slots. Every
+ * {@link Subscription} has its own cursor into the ring and never blocks the capture thread:
+ * a subscriber that falls more than a ring behind skips ahead and counts the lost frames as
+ * overruns. Publishing is a single volatile write. Readers validate a slot after copying it,
+ * seqlock style, with {@link Unsafe#loadFence()} between the copy and the check so the plain loads
+ * of the copy cannot be reordered past it.
+ *
+ * @author naiemk
+ */
+public class AudioBus {
+    public static final int FRAME_BYTES = 1024;
+    public static final int SLOTS = 64;
+    private static final long LOSSLESS_WAIT_NANOS = 20_000;
+    private static final Unsafe UNSAFE = unsafe();
+
+    private final InputStream source;
+    private final AudioFormat format;
+    private final int frameBytes;
+    private final byte[][] ring;
+    private final int[] lengths;
+    private final long[] captured;
+    private final AtomicLong published = new AtomicLong();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private final List<Runnable> endListeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean closed;
+    private volatile boolean lossless;
+    private Thread capture;
+
+    public AudioBus(InputStream source, AudioFormat format, int frameBytes, int slots) {
+        this.source = source;
+        this.format = format;
+        this.frameBytes = frameBytes - frameBytes % format.getFrameSize();
+        this.ring = new byte[slots][this.frameBytes];
+        this.lengths = new int[slots];
+        this.captured = new long[slots];
+    }
+
+    /**
+     * A bus over the default microphone in {@link Recorder#AUDIO_FORMAT}. The microphone captures
+     * at its own rate and is resampled on the capture thread.
+     */
+    public static AudioBus microphone() {
+        TargetDataLine line = Recorder.openMicrophone();
+        line.start();
+        AudioFormat captured = line.getFormat();
+        InputStream source = new AudioInputStream(line);
+        if (!captured.matches(Recorder.AUDIO_FORMAT)) {
+            source = new ResamplingInputStream(source, captured, Recorder.AUDIO_FORMAT);
+        }
+        System.out.println("Capturing " + captured);
+        return new AudioBus(source, Recorder.AUDIO_FORMAT, FRAME_BYTES, SLOTS);
+    }
+
+    /**
+     * Makes capture wait for the slowest subscriber instead of letting it overrun. Only for
+     * sources that can wait, like files being replayed faster than real time.
+     */
+    public AudioBus lossless() {
+        lossless = true;
+        return this;
+    }
+
+    public synchronized AudioBus start() {
+        if (capture == null) {
+            capture = new Thread(this::capture, "audio-capture");
+            capture.setDaemon(true);
+            capture.setPriority(Thread.MAX_PRIORITY);
+            capture.start();
+        }
+        return this;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public int getFrameBytes() {
+        return frameBytes;
+    }
+
+    /**
+     * Frames captured so far.
+     */
+    public long getPublished() {
+        return published.get();
+    }
+
+    /**
+     * Runs the action on the capture thread once the source ended or the bus was closed.
+     */
+    public AudioBus onEnd(Runnable action) {
+        endListeners.add(action);
+        return this;
+    }
+
+    /**
+     * Subscribes starting from the next captured frame.
+     */
+    public Subscription subscribe() {
+        Subscription s = new Subscription(published.get());
+        subscriptions.add(s);
+        return s;
+    }
+
+    /**
+     * Stops capturing and closes the source. Subscribers drain what is left and then see the end.
+     */
+    public void close() {
+        closed = true;
+        try {
+            source.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        wakeAll();
+    }
+
+    private void capture() {
+        try {
+            while (!closed) {
+                long seq = published.get();
+                if (lossless) {
+                    awaitSubscribers(seq);
+                }
+                int slot = (int) (seq % ring.length);
+                int n = readFrame(ring[slot]);
+                if (n <= 0) {
+                    break;
+                }
+                lengths[slot] = n;
+                captured[slot] = System.nanoTime();
+                published.set(seq + 1);
+                wakeAll();
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                e.printStackTrace();
+            }
+        } finally {
+            closed = true;
+            wakeAll();
+            endListeners.forEach(Runnable::run);
+        }
+    }
+
+    private int readFrame(byte[] frame) throws IOException {
+        int read = 0;
+        while (read < frame.length) {
+            int n = source.read(frame, read, frame.length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read - read % format.getFrameSize();
+    }
+
+    private void awaitSubscribers(long seq) {
+        // Readers give up on a slot one frame early, see the lap check in Subscription.read.
+        for (Subscription s : subscriptions) {
+            while (!closed && !s.unsubscribed && seq - s.consumed >= ring.length - 1) {
+                LockSupport.parkNanos(LOSSLESS_WAIT_NANOS);
+            }
+        }
+    }
+
+    private void wakeAll() {
+        for (Subscription s : subscriptions) {
+            Thread waiter = s.waiter;
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    private static Unsafe unsafe() {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return (Unsafe) field.get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * One consumer's view of the bus. Meant to be read from a single thread.
+     */
+    public class Subscription implements AutoCloseable {
+        private long cursor;
+        private long overruns;
+        private long capturedAt;
+        private volatile long consumed;
+        private volatile Thread waiter;
+        private volatile boolean unsubscribed;
+
+        private Subscription(long cursor) {
+            this.cursor = cursor;
+            this.consumed = cursor;
+        }
+
+        /**
+         * Copies the next frame into {@code dst}, waiting for it if needed.
+         *
+         * @return bytes copied, or -1 once the bus is closed and drained or the subscription closed.
+         */
+        public int read(byte[] dst, int off) throws InterruptedException {
+            while (true) {
+                if (unsubscribed) {
+                    return -1;
+                }
+
+                long available = published.get();
+                if (cursor < available) {
+                    if (available - cursor > ring.length) {
+                        skipTo(available - ring.length + 1);
+                        continue;
+                    }
+
+                    int slot = (int) (cursor % ring.length);
+                    int n = lengths[slot];
+                    long at = captured[slot];
+                    System.arraycopy(ring[slot], 0, dst, off, n);
+
+                    // The capture thread may have lapped us while copying. The fence keeps the loads
+                    // above from being satisfied after the re-check below.
+                    UNSAFE.loadFence();
+                    if (published.get() - cursor >= ring.length) {
+                        skipTo(published.get() - ring.length + 1);
+                        continue;
+                    }
+
+                    cursor++;
+                    capturedAt = at;
+                    if (lossless) {
+                        consumed = cursor;
+                    }
+                    return n;
+                }
+
+                if (closed) {
+                    return -1;
+                }
+
+                waiter = Thread.currentThread();
+                if (cursor >= published.get() && !closed && !unsubscribed) {
+                    LockSupport.park(this);
+                }
+                waiter = null;
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+
+        /**
+         * Frames lost because this subscriber fell behind the capture thread.
+         */
+        public long getOverruns() {
+            return overruns;
+        }
+
+        /**
+         * When the frame last read was captured, a {@link System#nanoTime()} reading.
+         */
+        public long getCapturedAt() {
+            return capturedAt;
+        }
+
+        /**
+         * Frames captured but not read yet.
+         */
+        public long getLag() {
+            return published.get() - cursor;
+        }
+
+        /**
+         * The frames as a plain byte stream, for consumers like the recognizers.
+         */
+        public InputStream asInputStream() {
+            return new InputStream() {
+                private final byte[] frame = new byte[frameBytes];
+                private int position;
+                private int length;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (position == length) {
+                        try {
+                            length = Subscription.this.read(frame, 0);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted while waiting for audio.", e);
+                        }
+                        position = 0;
+                        if (length < 0) {
+                            length = 0;
+                            return -1;
+                        }
+                    }
+
+                    int n = Math.min(len, length - position);
+                    System.arraycopy(frame, position, b, off, n);
+                    position += n;
+                    return n;
+                }
+
+                @Override
+                public int available() {
+                    return length - position;
+                }
+
+                @Override
+                public void close() {
+                    Subscription.this.close();
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            unsubscribed = true;
+            subscriptions.remove(this);
+            Thread w = waiter;
+            if (w != null) {
+                LockSupport.unpark(w);
+            }
+        }
+
+        private void skipTo(long next) {
+            overruns += next - cursor;
+            Metrics.CAPTURE_OVERRUNS.add(next - cursor);
+            cursor = next;
+        }
+    }
+}
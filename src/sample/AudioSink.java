@@ -0,0 +1,35 @@
+package sample;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+
+/**
+ * Where {@link PlaybackEngine} plays replies to: the speakers, or the connection of a remote caller.
+ *
+ * @author naiemk
+ */
+public interface AudioSink {
+    /**
+     * Gets ready to play audio in the given format, called before every reply.
+     */
+    void open(AudioFormat format) throws IOException;
+
+    /**
+     * Plays whole frames. Blocks while the audio written before is still far ahead of what was heard.
+     */
+    void write(byte[] b, int off, int len) throws IOException;
+
+    /**
+     * Waits until everything written was played.
+     */
+    void drain() throws IOException;
+
+    /**
+     * Drops what was written but not played yet. Can be called from any thread.
+     */
+    void discard();
+
+    boolean isActive();
+
+    void close();
+}
@@ -1,16 +1,44 @@
 package sample;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
+ * Tells work that it should stop. Instead of polling {@link #isCancelled()}, stages register
+ * an action with {@link #onCancel(Runnable)} that wakes them up.
+ *
  * @author naiemk
  */
 public class CancellationToken {
-    boolean cancelled;
+    volatile boolean cancelled;
+    private final CompletableFuture<Void> cancellation = new CompletableFuture<>();
 
     public CancellationToken(boolean cancelled) {
-        this.cancelled = cancelled;
+        if (cancelled) {
+            cancel();
+        }
     }
 
     public void cancel() {
         this.cancelled = true;
+        cancellation.complete(null);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Runs the action on the cancelling thread, or right away if already cancelled.
+     */
+    public CancellationToken onCancel(Runnable action) {
+        cancellation.thenRun(action);
+        return this;
+    }
+
+    /**
+     * Completes when cancelled.
+     */
+    public CompletableFuture<Void> whenCancelled() {
+        return cancellation;
     }
 }
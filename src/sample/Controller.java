@@ -1,5 +1,6 @@
 package sample;
 
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
@@ -8,20 +9,18 @@ import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
 import javafx.scene.control.TextArea;
-import javafx.scene.paint.Color;
-import org.jtransforms.fft.FloatFFT_1D;
+import javafx.util.Duration;
 
 import java.net.URL;
 import java.util.ResourceBundle;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.IntStream;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Controller implements Initializable {
-    public static ScheduledThreadPoolExecutor worker = new ScheduledThreadPoolExecutor(4);
     private static final int CANVAS_HEIGHT = 200;
     private static final int WAVE_WIDTH = 400;
     private static final int SPEC_WIDTH = 400;
+    private static final int EDIT_PAUSE_MILLIS = 500;
+    private static final int BACKGROUND = 0xff000000;
     private GraphicsContext graphicsWaveForm;
     private GraphicsContext graphicSpectogram;
     @FXML private Canvas spectogramCanvas;
@@ -29,10 +28,17 @@ public class Controller implements Initializable {
     @FXML private TextArea dialog;
     @FXML private Button dialogBtn;
 
-    private int waveX = WAVE_WIDTH;
-    private int specX = SPEC_WIDTH;
-    private int[] scale = new int[] {1};
     private CancellationToken calcellationToken = new CancellationToken(false);
+    private CancellationToken sessionToken;
+    private DialogueService.State sessionState = DialogueService.State.IDLE;
+    private volatile DialogueService session;
+    private final PauseTransition edits = new PauseTransition(Duration.millis(EDIT_PAUSE_MILLIS));
+    // Counts edits, compiles of older edits that finish late are dropped.
+    private final AtomicLong edit = new AtomicLong();
+    private final Stft stft = new Stft();
+    private final ScrollingImage spectrogram = new ScrollingImage(SPEC_WIDTH, CANVAS_HEIGHT);
+    private WaveformView waveform;
+    private AudioBus audioBus;
 
     @Override
     public void initialize(URL location, ResourceBundle resources) {
@@ -41,107 +47,138 @@ public class Controller implements Initializable {
         System.out.println("color set to black");
         System.out.println("draw rectangle");
         setUpDialog();
+        // One capture of the microphone, shared by the visualizer and the recognizer.
+        audioBus = AudioBus.microphone().start();
+        waveform = WaveformView.fromEnvironment(WAVE_WIDTH, CANVAS_HEIGHT, audioBus.getFormat().getSampleRate())
+                .attach(waveFormCanvas);
         listenAndPaintSpectogram();
+        FrameTimer.fromEnvironment(() -> {
+            spectrogram.paint(graphicSpectogram);
+            waveform.paint(graphicsWaveForm);
+        }).start();
+        // Connect to the services while the user is still writing the dialogue.
+        ServiceClients.warmUp();
+        Metrics.startReporting();
 
     }
 
     @FXML
     protected void converse(ActionEvent event) {
-        // Stop dialogue and start conversation conversation.
-        worker.schedule(() -> new DialogueService(dialog.getText())
-                .startSpeechToText(calcellationToken), 1, TimeUnit.SECONDS);
-        dialogBtn.setDisable(true);
+        // The same button starts, stops and restarts the conversation.
+        if (sessionToken != null && !sessionToken.isCancelled()
+                && sessionState != DialogueService.State.STOPPED && sessionState != DialogueService.State.FAILED) {
+            sessionToken.cancel();
+            return;
+        }
+
+        CancellationToken token = new CancellationToken(false);
+        sessionToken = token;
+        showState(DialogueService.State.STARTING);
+        String text = dialog.getText();
+        Lane.IO.execute(() -> {
+            try {
+                DialogueService session = new DialogueService(text);
+                this.session = session;
+                session.onStateChange(state -> Platform.runLater(() -> {
+                    if (token == sessionToken) {
+                        showState(state);
+                    }
+                }));
+                session.start(audioBus, token);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                Platform.runLater(() -> showState(DialogueService.State.FAILED));
+            }
+        });
     }
 
-    private void listenAndPaintSpectogram() {
-        worker.schedule(() -> new Recorder(d -> {
-            float[] samples = d.getSamples(); // Raw sound sample amplitudes
-            float[] fft = new float[samples.length * 2]; // FFT of the sample amplitudes
-            System.arraycopy(samples, 0, fft, 0, samples.length);
-            FloatFFT_1D fftDo = new FloatFFT_1D(samples.length);
-            fftDo.realForwardFull(fft); // Generate the FFT (both real and imaginary parts)
+    private void showState(DialogueService.State state) {
+        sessionState = state;
+        switch (state) {
+            case STARTING:
+                dialogBtn.setText("Starting... (click to stop)");
+                break;
+            case LISTENING:
+                dialogBtn.setText("Stop the Dialogue");
+                break;
+            case STOPPING:
+                dialogBtn.setText("Stopping...");
+                break;
+            case FAILED:
+                dialogBtn.setText("Failed, restart the Dialogue!");
+                break;
+            default:
+                dialogBtn.setText("Restart the Dialogue!");
+        }
+    }
 
-            double[] amps = new double[(samples.length+1)/2]; // Calculate FFT amplitudes
+    private void listenAndPaintSpectogram() {
+        // The visualizer must never hold up capture, it runs on the DSP lane and only fills pixel
+        // columns. The FX thread picks up whatever is new once per frame.
+        int[] spectrumColumn = new int[CANVAS_HEIGHT];
+        float[] frame = new float[Recorder.DEFAULT_FRAME];
+        float[] fresh = new float[Recorder.DEFAULT_FRAME];
+        Lane.DSP.execute(() -> new Recorder(d -> {
+            d.windowTo(frame); // Overlapping Hann windowed frames, half of each was in the last one
+            final int bins = stft.transform(frame, frame.length); // FFT amplitudes, buffers are reused
+            final double[] amps = stft.getAmplitudes();
 
             // Normalize the FFT amplitudes
             double minamp = 0; // Min is always 0. We could technically not have this. Keeping for readability.
-            double maxamp = 0;
-            for(int f=0; f < amps.length; f++) {
-                final double amp = Math.log(1+Math.sqrt(fft[f * 2] * fft[f * 2] + fft[f * 2 + 1] * fft[f * 2 + 1]));
-                amps[f] = amp;
-                minamp = Math.min(amp, minamp);
-                maxamp = Math.max(amp, maxamp);
-            }
+            double maxamp = stft.getMax();
 
             double scaleFactor = 0xFFFFFF / (maxamp - minamp);
 
-            // Print one column of FFT
-            final int x = addSpecX();
-            for(int f=0; f < amps.length; f++) {
-                final double h = CANVAS_HEIGHT - CANVAS_HEIGHT * f / amps.length;
-                final double amp = amps[f] * scaleFactor;
-                Platform.runLater(() -> {
-                    double ratio = 2 * amp / 0xFFFFFF;
-                    int b = (int)Math.max(0, 255*(1 - ratio));
-                    int r = (int)Math.max(0, 255*(ratio - 1));
-                    int g = 255 - b - r;
-                    graphicSpectogram.setStroke(Color.rgb(r,g,b));
-                    graphicSpectogram.strokeLine(x, h, x + 1, h);
-                });
+            // One column of FFT, high frequencies on top. A row shows the loudest of its bins.
+            for (int y = 0; y < CANVAS_HEIGHT; y++) {
+                int from = bins * (CANVAS_HEIGHT - 1 - y) / CANVAS_HEIGHT;
+                int to = Math.max(from + 1, bins * (CANVAS_HEIGHT - y) / CANVAS_HEIGHT);
+                double amp = 0;
+                for (int f = from; f < to; f++) {
+                    amp = Math.max(amp, amps[f]);
+                }
+                spectrumColumn[y] = heat(amp * scaleFactor);
             }
+            spectrogram.push(spectrumColumn);
 
-            // Bucket samples for better display.
-            double zoomOutRatio = 0.005;
-            int zoomWidth = (int)(1 / zoomOutRatio);
-            for (int i = 0; i < samples.length * zoomOutRatio; i++) {
-                int index = i * zoomWidth;
-                double sMax = IntStream.range(Math.max(0, index - zoomWidth), Math.min(index, samples.length))
-                        .mapToDouble(j -> samples[j])
-                        .max()
-                        .orElse(0);
-                double sMin = IntStream.range(Math.max(0, index - zoomWidth), Math.min(index, samples.length))
-                        .mapToDouble(j -> samples[j])
-                        .min()
-                        .orElse(0);
-                double yMin = sMin * CANVAS_HEIGHT * scale[0] + CANVAS_HEIGHT / 2;
-                double yMax = sMax * CANVAS_HEIGHT * scale[0] + CANVAS_HEIGHT / 2;
-                int waveX = addWaveX();
-                Platform.runLater(() -> {
-                    graphicsWaveForm.setStroke(Color.WHITE);
-                    graphicsWaveForm.strokeLine(waveX, yMin, waveX, yMax);
-                });
-            }
-        }).start(calcellationToken), 1, TimeUnit.SECONDS);
+            // The waveform keeps minutes of history and is drawn at whatever zoom is chosen.
+            waveform.add(fresh, d.copyNewTo(fresh));
+        }).start(audioBus, calcellationToken));
 
     }
 
-    private void setUpDialog() {
-        dialog.textProperty().setValue("#Paste dialogue here.\n #Use <keyword>:<Answer>");
+    /**
+     * Blue for quiet through green to red for the loudest bin, as an ARGB pixel.
+     */
+    private static int heat(double amp) {
+        double ratio = 2 * amp / 0xFFFFFF;
+        int b = (int) Math.min(255, Math.max(0, 255 * (1 - ratio)));
+        int r = (int) Math.min(255, Math.max(0, 255 * (ratio - 1)));
+        int g = 255 - b - r;
+        return BACKGROUND | r << 16 | g << 8 | b;
     }
 
-    private int addWaveX() {
-        waveX ++;
-        if (waveX > WAVE_WIDTH) {
-            waveX = 0;
-            Platform.runLater(() -> {
-                graphicsWaveForm.setFill(Color.BLACK);
-                graphicsWaveForm.fillRect(0, 0, 400, 200);
-            });
-        }
-
-        return waveX;
+    private void setUpDialog() {
+        dialog.textProperty().setValue("#Paste dialogue here.\n #Use <keyword>:<Answer>");
+        // Edits reach a running dialogue once typing pauses, without restarting it.
+        edits.setOnFinished(e -> reloadDialog(dialog.getText()));
+        dialog.textProperty().addListener((property, was, is) -> edits.playFromStart());
     }
 
-    private int addSpecX() {
-        specX ++;
-        if (specX > SPEC_WIDTH) {
-            specX = 0;
-            Platform.runLater(() -> {
-                graphicSpectogram.setFill(Color.BLACK);
-                graphicSpectogram.fillRect(0, 0, 400, 200);
-            });
+    private void reloadDialog(String text) {
+        DialogueService current = session;
+        if (current == null || (sessionState != DialogueService.State.STARTING
+                && sessionState != DialogueService.State.LISTENING)) {
+            return;
         }
-
-        return specX;
+        long seq = edit.incrementAndGet();
+        Lane.IO.execute(() -> {
+            Dialogue compiled = Dialogue.compile(text);
+            synchronized (edit) {
+                if (edit.get() == seq) {
+                    current.reload(compiled);
+                }
+            }
+        });
     }
 }
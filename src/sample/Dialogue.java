@@ -0,0 +1,242 @@
+package sample;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled dialogue: keywords and the reply to each, looked up without holding the script in memory.
+ *
+ * The script is read a line at a time. A line is {@code keyword: reply}, split at the first colon
+ * so replies may contain colons; lines starting with # and lines without a colon are skipped, and
+ * the first reply to a keyword wins. The index holds the replies as UTF-8 in script order, then
+ * every keyword once in sorted order, then a table of (keyword offset, keyword length, reply
+ * offset, reply length) ints sorted the same way, then a trailer: table offset, entries, version,
+ * {@link #MAGIC}. Lookups binary search the table in place, an index on disk is memory-mapped.
+ *
+ * @author naiemk
+ */
+public class Dialogue {
+    public static final int MAGIC = 0x424c4458;
+    private static final int VERSION = 1;
+    private static final int ENTRY_BYTES = 16;
+    private static final int TRAILER_BYTES = 16;
+
+    private final ByteBuffer index;
+    private final int entries;
+    private final int table;
+    private final List<String> keywords;
+
+    private Dialogue(ByteBuffer index) throws IOException {
+        this.index = index;
+        int end = index.limit();
+        if (end < TRAILER_BYTES || index.getInt(end - 4) != MAGIC || index.getInt(end - 8) != VERSION) {
+            throw new IOException("Not a compiled dialogue.");
+        }
+        this.entries = index.getInt(end - 12);
+        this.table = index.getInt(end - 16);
+
+        String[] words = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            words[i] = string(table + i * ENTRY_BYTES);
+        }
+        this.keywords = Collections.unmodifiableList(Arrays.asList(words));
+    }
+
+    /**
+     * Compiles a script held in memory, the index stays on the heap.
+     */
+    public static Dialogue compile(String script) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(script.length() + 64);
+            compile(new StringReader(script), out);
+            return new Dialogue(ByteBuffer.wrap(out.toByteArray()));
+        } catch (IOException e) {
+            throw new RuntimeException("Error compiling dialogue.", e);
+        }
+    }
+
+    /**
+     * Compiles a script file into an index file and maps it.
+     */
+    public static Dialogue compile(File script, File index) throws IOException {
+        try (Reader in = new InputStreamReader(Files.newInputStream(script.toPath()), StandardCharsets.UTF_8);
+             OutputStream out = new FileOutputStream(index)) {
+            compile(in, out);
+        }
+        return open(index);
+    }
+
+    /**
+     * Maps an index written by {@link #compile(File, File)}.
+     */
+    public static Dialogue open(File index) throws IOException {
+        try (FileChannel channel = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+            return new Dialogue(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Streams the script into an index. Only the keywords are kept in memory, replies go straight out.
+     *
+     * @return entries written.
+     */
+    public static int compile(Reader script, OutputStream index) throws IOException {
+        BufferedReader in = new BufferedReader(script);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(index));
+        Map<String, int[]> replies = new HashMap<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            int colon = line.indexOf(':');
+            if (line.startsWith("#") || colon < 0) {
+                continue;
+            }
+            String keyword = line.substring(0, colon).trim().toLowerCase();
+            String reply = line.substring(colon + 1).trim();
+            if (keyword.isEmpty() || reply.isEmpty() || replies.containsKey(keyword)) {
+                continue;
+            }
+            byte[] bytes = reply.getBytes(StandardCharsets.UTF_8);
+            replies.put(keyword, new int[] {out.size(), bytes.length});
+            out.write(bytes);
+        }
+
+        byte[][] sorted = new byte[replies.size()][];
+        int i = 0;
+        for (String keyword : replies.keySet()) {
+            sorted[i++] = keyword.getBytes(StandardCharsets.UTF_8);
+        }
+        Arrays.sort(sorted, Dialogue::compare);
+        int[] offsets = new int[sorted.length];
+        for (i = 0; i < sorted.length; i++) {
+            offsets[i] = out.size();
+            out.write(sorted[i]);
+        }
+
+        int table = out.size();
+        for (i = 0; i < sorted.length; i++) {
+            int[] reply = replies.get(new String(sorted[i], StandardCharsets.UTF_8));
+            out.writeInt(offsets[i]);
+            out.writeInt(sorted[i].length);
+            out.writeInt(reply[0]);
+            out.writeInt(reply[1]);
+        }
+        out.writeInt(table);
+        out.writeInt(sorted.length);
+        out.writeInt(VERSION);
+        out.writeInt(MAGIC);
+        out.flush();
+        return sorted.length;
+    }
+
+    /**
+     * Every keyword, sorted.
+     */
+    public List<String> keywords() {
+        return keywords;
+    }
+
+    /**
+     * Every distinct reply, in script order.
+     */
+    public Collection<String> replies() {
+        Integer[] order = new Integer[entries];
+        for (int i = 0; i < entries; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(index.getInt(table + a * ENTRY_BYTES + 8),
+                index.getInt(table + b * ENTRY_BYTES + 8)));
+        LinkedHashSet<String> replies = new LinkedHashSet<>();
+        for (Integer entry : order) {
+            replies.add(string(table + entry * ENTRY_BYTES + 8));
+        }
+        return replies;
+    }
+
+    /**
+     * The reply to the keyword, or null if the dialogue has none.
+     */
+    public String reply(String keyword) {
+        byte[] key = keyword.toLowerCase().getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = entries - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int entry = table + mid * ENTRY_BYTES;
+            int c = compare(index.getInt(entry), index.getInt(entry + 4), key);
+            if (c < 0) {
+                low = mid + 1;
+            } else if (c > 0) {
+                high = mid - 1;
+            } else {
+                return string(entry + 8);
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return entries;
+    }
+
+    /**
+     * Bytes taken by the index.
+     */
+    public int getIndexBytes() {
+        return index.limit();
+    }
+
+    /**
+     * Decodes the string whose offset and length are at {@code at}.
+     */
+    private String string(int at) {
+        byte[] bytes = new byte[index.getInt(at + 4)];
+        ByteBuffer view = index.duplicate();
+        view.position(index.getInt(at));
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int compare(int offset, int length, byte[] key) {
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int c = (index.get(offset + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return length - key.length;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int c = (a[i] & 0xff) - (b[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return a.length - b.length;
+    }
+}
@@ -0,0 +1,105 @@
+package sample;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares parsing a large dialogue into maps, the way sessions used to, with compiling it into a
+ * {@link Dialogue} index: time to load, heap held afterwards and time per reply lookup.
+ * Run with {@code java sample.DialogueBenchmark [entries]}.
+ *
+ * @author naiemk
+ */
+public class DialogueBenchmark {
+    private static final int LOOKUPS = 1000000;
+
+    public static void main(String[] args) throws IOException {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        File script = File.createTempFile("dialogue", ".txt");
+        File index = File.createTempFile("dialogue", ".idx");
+        script.deleteOnExit();
+        index.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(script, "UTF-8")) {
+            out.println("# Generated");
+            for (int i = 0; i < entries; i++) {
+                out.println("keyword" + i + ": Reply number " + i + ", at 10:30 sharp: bring the map.");
+            }
+        }
+        System.out.println(String.format("%d entries, %.1f MB script", entries, script.length() / 1048576.0));
+
+        for (int round = 0; round < 3; round++) {
+            long heap = usedHeap();
+            long started = System.nanoTime();
+            String text = new String(Files.readAllBytes(script.toPath()), StandardCharsets.UTF_8);
+            Map<String, String> maps = split(text);
+            text = null;
+            long parsed = System.nanoTime() - started;
+            long mapsHeap = usedHeap() - heap;
+            long mapsLookup = lookups(maps::get, entries);
+
+            heap = usedHeap();
+            started = System.nanoTime();
+            Dialogue dialogue = Dialogue.compile(script, index);
+            long compiled = System.nanoTime() - started;
+            long indexHeap = usedHeap() - heap;
+            long indexLookup = lookups(dialogue::reply, entries);
+
+            System.out.println(String.format("split into maps: load %5.0f ms, heap %5.1f MB, lookup %4d ns, reply \"%s\"",
+                    parsed / 1e6, mapsHeap / 1048576.0, mapsLookup, maps.get("keyword7")));
+            System.out.println(String.format("compiled index:  load %5.0f ms, heap %5.1f MB, lookup %4d ns, reply \"%s\" (%.1f MB mapped)",
+                    compiled / 1e6, indexHeap / 1048576.0, indexLookup, dialogue.reply("keyword7"),
+                    dialogue.getIndexBytes() / 1048576.0));
+        }
+    }
+
+    /**
+     * The old parser, colons in replies cut them short.
+     */
+    private static Map<String, String> split(String dialog) {
+        List<String> lines = Stream.of(dialog.split("\n"))
+                .map(l -> l.trim())
+                .filter(l -> !l.startsWith("#") && l.contains(":"))
+                .collect(Collectors.toList());
+        return lines.stream()
+                .map(l -> l.split(":"))
+                .collect(Collectors.groupingBy(p -> p[0].trim().toLowerCase(), Collectors.toList()))
+                .entrySet()
+                .stream()
+                .collect(Collectors.toMap(e -> e.getKey(),
+                        e -> e.getValue().stream().map(p -> p[1]).findFirst().get()));
+    }
+
+    private static long lookups(java.util.function.Function<String, String> lookup, int entries) {
+        String[] keys = new String[1024];
+        Random random = new Random(7);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "keyword" + random.nextInt(entries);
+        }
+        long found = 0;
+        long started = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            found += lookup.apply(keys[i & (keys.length - 1)]).length();
+        }
+        long nanos = (System.nanoTime() - started) / LOOKUPS;
+        if (found == 0) {
+            System.out.println();
+        }
+        return nanos;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
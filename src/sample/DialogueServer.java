@@ -0,0 +1,142 @@
+package sample;
+
+import com.ibm.watson.developer_cloud.speech_to_text.v1.SpeechToText;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs dialogues without the UI, one session per TCP connection.
+ *
+ * A caller streams {@link Recorder#AUDIO_FORMAT} audio up the connection and gets the replies
+ * back on it as described in {@link StreamSink}. Closing the upstream ends the session. All
+ * sessions share one reply cache and one set of service clients. Saving the dialogue file
+ * switches new and running sessions over to it.
+ *
+ * Connections are set up on {@link Lane#IO}. A running session holds no thread of its own
+ * beyond what its stages take on their lanes.
+ *
+ * Usage: {@code DialogueServer <dialogue file> [port]}
+ *
+ * @author naiemk
+ */
+public class DialogueServer {
+    public static final int DEFAULT_PORT = 7700;
+    private static final int REPORT_SECONDS = 10;
+
+    private final DialogueWatcher dialogue;
+    private final int port;
+    private final ReplyCache replyCache;
+    private final SpeechToText speechToText;
+
+    private final Set<DialogueService> sessions = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "session-report");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public DialogueServer(File dialog, int port) throws IOException {
+        this.dialogue = new DialogueWatcher(dialog).onChange(this::reload);
+        this.port = port;
+        this.replyCache = ServiceClients.replyCache();
+        this.speechToText = SpeechRecognizer.isLocal() ? null : ServiceClients.speechToText();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: DialogueServer <dialogue file> [port]");
+            System.exit(1);
+        }
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        new DialogueServer(new File(args[0]), port).serve();
+    }
+
+    public void serve() throws IOException {
+        ServiceClients.warmUp();
+        Metrics.startReporting();
+        reporter.scheduleAtFixedRate(this::report, REPORT_SECONDS, REPORT_SECONDS, TimeUnit.SECONDS);
+        try (ServerSocket server = new ServerSocket(port)) {
+            System.out.println("Listening on port " + port);
+            while (true) {
+                Socket socket = server.accept();
+                Lane.IO.execute(() -> session(socket));
+            }
+        }
+    }
+
+    /**
+     * Sets up a session and returns, the session ends on its own when the caller hangs up.
+     */
+    private void session(Socket socket) {
+        long started = System.nanoTime();
+        try {
+            socket.setTcpNoDelay(true);
+            SpeechRecognizer recognizer = speechToText == null ? new KeywordSpotter() : new WatsonRecognizer(speechToText);
+            DialogueService service = new DialogueService(dialogue.get(), recognizer, replyCache, new StreamSink(socket.getOutputStream()));
+            sessions.add(service);
+
+            CancellationToken cancellation = new CancellationToken(false);
+            AudioBus bus = new AudioBus(socket.getInputStream(), Recorder.AUDIO_FORMAT, AudioBus.FRAME_BYTES, AudioBus.SLOTS)
+                    .onEnd(cancellation::cancel);
+            service.start(bus, cancellation).whenComplete((v, e) -> {
+                sessions.remove(service);
+                bus.close();
+                close(socket);
+                PlaybackEngine playback = service.getPlayback();
+                System.out.println(String.format("Session %d %s after %.1f s: %d replies, latency mean %.0f ms, max %.0f ms",
+                        service.getId(), service.getState().toString().toLowerCase(), (System.nanoTime() - started) / 1e9,
+                        playback.getPlayed(), playback.getMeanLatencyMillis(), playback.getMaxLatencyMillis()));
+            });
+            bus.start();
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            close(socket);
+        }
+    }
+
+    private void reload(Dialogue next) {
+        sessions.forEach(s -> s.reload(next));
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Heap per live session and reply latency across them.
+     */
+    private void report() {
+        int live = sessions.size();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long heap = memory.getHeapMemoryUsage().getUsed();
+        long replies = 0;
+        double latency = 0;
+        double maxLatency = 0;
+        for (DialogueService service : sessions) {
+            PlaybackEngine playback = service.getPlayback();
+            replies += playback.getPlayed();
+            latency += playback.getMeanLatencyMillis() * playback.getPlayed();
+            maxLatency = Math.max(maxLatency, playback.getMaxLatencyMillis());
+        }
+        System.out.println(String.format("%d sessions, %d threads, heap %.1f MB (%.0f KB per session), "
+                        + "%d replies, latency mean %.0f ms, max %.0f ms",
+                live, ManagementFactory.getThreadMXBean().getThreadCount(), heap / 1048576.0,
+                live == 0 ? 0.0 : heap / 1024.0 / live, replies,
+                replies == 0 ? 0.0 : latency / replies, maxLatency));
+        System.out.println(Lane.reportAll());
+    }
+}
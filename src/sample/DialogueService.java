@@ -1,25 +1,18 @@
 package sample;
 
-import com.ibm.watson.developer_cloud.http.HttpMediaType;
-import com.ibm.watson.developer_cloud.speech_to_text.v1.SpeechToText;
-import com.ibm.watson.developer_cloud.speech_to_text.v1.model.RecognizeOptions;
-import com.ibm.watson.developer_cloud.speech_to_text.v1.model.SpeechResults;
-import com.ibm.watson.developer_cloud.speech_to_text.v1.websocket.BaseRecognizeCallback;
-import com.ibm.watson.developer_cloud.text_to_speech.v1.TextToSpeech;
-import com.ibm.watson.developer_cloud.text_to_speech.v1.model.*;
-import com.ibm.watson.developer_cloud.text_to_speech.v1.util.WaveUtils;
-import org.apache.commons.io.IOUtils;
-
-import javax.sound.midi.SysexMessage;
 import javax.sound.sampled.*;
 import javax.sound.sampled.AudioFormat;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
 
 /**
  * A dialogue service.
@@ -33,114 +26,296 @@ public class DialogueService {
     public static final String BLUE_MIX_TTS_UN = "BLUEMIX_TEXT_TO_SPEACH_UN";
     public static final String BLUE_MIX_TTS_PW = "BLUEMIX_TEXT_TO_SPEACH_PW";
 
-    private final List<Voice> voices;
-    private SpeechToText speachToText;
-    private TextToSpeech textToSpeech;
+    // Transcript words this many edits away from a dialogue word still count as that word.
+    private static final int PHRASE_EDITS = 1;
 
-    private Map<String, String> keywords;
+    public static final String REPLY_COOLDOWN_ENV = "BLUELOGUE_REPLY_COOLDOWN_MS";
+
+    private static final String GREETING = "Let us start the game!";
+
+    public enum State { IDLE, STARTING, LISTENING, STOPPING, STOPPED, FAILED }
+
+    private static final AtomicInteger ids = new AtomicInteger();
+
+    private final int id = ids.incrementAndGet();
+    private volatile EventLog events = EventLog.shared();
+    private final long createdAt = System.nanoTime();
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private final List<Consumer<State>> stateListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<Recognition>> recognitionListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<String>> replyListeners = new CopyOnWriteArrayList<>();
+    private volatile State state = State.IDLE;
+    private volatile VadGate uplink;
+    private SpeechRecognizer recognizer;
+    private PlaybackEngine playback;
+    private SessionRecorder sessionRecorder;
+    private int lastUtterance = -1;
+
+    // Swapped as a whole on reload, a hypothesis sees either the old dialogue or the new one.
+    private volatile Script script;
+    private ReplyCache replyCache;
+    private ReplyArbiter arbiter;
 
     public DialogueService(String dialog) {
-        processDialogue(dialog);
-        speachToText = new SpeechToText();
-        speachToText.setUsernameAndPassword(System.getenv(BLUE_MIX_STT_UN), System.getenv(BLUE_MIX_STT_PW));
-
-        textToSpeech = new TextToSpeech();
-        textToSpeech.setUsernameAndPassword(System.getenv(BLUE_MIX_TTS_UN), System.getenv(BLUE_MIX_TTS_PW));
-        voices = textToSpeech.getVoices().execute();
-        playOutLoad("Let us start the game!");
-    }
-
-    public void startSpeechToText(CancellationToken cancellation) {
-
-        RecognizeOptions options = new RecognizeOptions.Builder()
-                .continuous(true)
-                .interimResults(true)
-                .contentType(HttpMediaType.AUDIO_RAW + "; rate=" + 16000)
-                .keywords(keywords.keySet().stream().toArray(String[]::new))
-                .keywordsThreshold(0.4)
-                .build();
-
-        try (TargetDataLine line = Recorder.microphoneLine.get()) {
-            line.open(Recorder.AUDIO_FORMAT);
-            line.start();
-            AudioInputStream audio = new AudioInputStream(line);
-            speachToText.recognizeUsingWebSocket(audio, options, new BaseRecognizeCallback() {
-                @Override
-                public void onTranscription(SpeechResults speechResults) {
-                    playResponse(speechResults);
+        this(dialog, SpeechRecognizer.fromEnvironment(), ServiceClients.replyCache(), new SpeakerSink());
+    }
+
+    public DialogueService(String dialog, SpeechRecognizer recognizer, ReplyCache replyCache, AudioSink sink) {
+        this(Dialogue.compile(dialog), recognizer, replyCache, sink);
+    }
+
+    /**
+     * A session that shares its reply cache with others and plays to the given sink.
+     */
+    public DialogueService(Dialogue dialogue, SpeechRecognizer recognizer, ReplyCache replyCache, AudioSink sink) {
+        this(dialogue, recognizer, replyCache::stream, sink);
+        this.replyCache = replyCache;
+        // Synthesize every reply in the background so keywords play without a network round-trip.
+        // Nothing here waits for the services, recognition starts right away.
+        replyCache.preload(dialogue.replies());
+    }
+
+    public DialogueService(String dialog, SpeechRecognizer recognizer,
+                           Function<String, AudioInputStream> replies, AudioSink sink) {
+        this(Dialogue.compile(dialog), recognizer, replies, sink);
+    }
+
+    /**
+     * A session that gets the audio of its replies from {@code replies}, like a stand-in for replays.
+     */
+    public DialogueService(Dialogue dialogue, SpeechRecognizer recognizer,
+                           Function<String, AudioInputStream> replies, AudioSink sink) {
+        this.script = new Script(dialogue);
+        this.recognizer = recognizer;
+        String cooldown = System.getenv(REPLY_COOLDOWN_ENV);
+        arbiter = cooldown == null ? new ReplyArbiter() : new ReplyArbiter(Long.parseLong(cooldown));
+        playback = new PlaybackEngine(replies, sink);
+        playOutLoad(GREETING);
+    }
+
+    /**
+     * The number of this session in the {@link EventLog}.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * What the recognizer reads, null until the session started.
+     */
+    public VadGate getUplink() {
+        return uplink;
+    }
+
+    public PlaybackEngine getPlayback() {
+        return playback;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Calls the listener on every state change, on the thread that caused it.
+     */
+    public void onStateChange(Consumer<State> listener) {
+        stateListeners.add(listener);
+    }
+
+    /**
+     * Calls the listener with every hypothesis from the recognizer.
+     */
+    public void onRecognition(Consumer<Recognition> listener) {
+        recognitionListeners.add(listener);
+    }
+
+    /**
+     * Calls the listener with every reply as it is queued.
+     */
+    public void onReply(Consumer<String> listener) {
+        replyListeners.add(listener);
+    }
+
+    /**
+     * Where reply cooldowns take their time from, see {@link ReplyArbiter#setClock}.
+     */
+    public void useClock(LongSupplier clock) {
+        arbiter.setClock(clock);
+    }
+
+    /**
+     * Logs this session's events to the given log instead of {@link EventLog#shared()}.
+     */
+    public void useEventLog(EventLog log) {
+        this.events = log;
+    }
+
+    public Dialogue getDialogue() {
+        return script.dialogue;
+    }
+
+    /**
+     * Switches to another dialogue while the session keeps running: the microphone and the
+     * recognition stream stay open, the next hypothesis is matched against the new keywords.
+     */
+    public void reload(Dialogue dialogue) {
+        script = new Script(dialogue);
+        recognizer.updateKeywords(dialogue.keywords());
+        if (replyCache != null) {
+            replyCache.preload(dialogue.replies());
+        }
+    }
+
+    /**
+     * Starts listening to the bus and returns right away. The session runs until {@link #stop()}
+     * or until the cancellation token is cancelled.
+     *
+     * @return completes once the session stopped, exceptionally if it failed.
+     */
+    public CompletableFuture<Void> start(AudioBus bus, CancellationToken cancellation) {
+        if (!moveTo(State.STARTING, State.IDLE)) {
+            throw new IllegalStateException("Session is " + state + ", it can only be started once.");
+        }
+        try {
+            sessionRecorder = SessionRecorder.fromEnvironment(bus);
+            if (sessionRecorder != null) {
+                onRecognition(sessionRecorder::recordRecognition);
+                onReply(sessionRecorder::recordReply);
+            }
+            // Only speech goes up to the recognizer, silence stays on this machine.
+            uplink = new VadGate(bus.subscribe(), bus.getFormat(), bus.getFrameBytes());
+            recognizer.start(uplink, script.dialogue.keywords(), this::playResponse);
+            recognizer.listening().whenComplete((v, e) -> {
+                if (e != null) {
+                    fail(e);
+                } else {
+                    moveTo(State.LISTENING, State.STARTING);
                 }
             });
+            cancellation.onCancel(this::stop);
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+        return done;
+    }
 
-            while (!cancellation.cancelled) {
-                Thread.sleep(1000);
-            }
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } catch (LineUnavailableException e) {
-            e.printStackTrace();
-            throw new RuntimeException(e);
+    /**
+     * Stops capture, recognition and playback. Nothing is waited for: the stages are woken up
+     * and wind down on their own threads.
+     */
+    public void stop() {
+        if (!moveTo(State.STOPPING, State.IDLE, State.STARTING, State.LISTENING)) {
+            return;
+        }
+        long stopping = System.nanoTime();
+        shutDown();
+        moveTo(State.STOPPED, State.STOPPING);
+        long stopped = System.nanoTime();
+        report();
+        System.out.println(String.format("Stopped in %.3f ms", (stopped - stopping) / 1e6));
+        done.complete(null);
+    }
+
+    private void fail(Throwable e) {
+        if (!moveTo(State.FAILED, State.IDLE, State.STARTING, State.LISTENING)) {
+            return;
         }
+        e.printStackTrace();
+        shutDown();
+        report();
+        done.completeExceptionally(e);
     }
 
-    private void playResponse(SpeechResults speechResults) {
-        if (speechResults.getResults() != null) {
-            List<String> kwds = speechResults.getResults().stream()
-                    .filter(r -> null != r.getKeywordsResult())
-                    .flatMap(t -> t.getKeywordsResult().keySet().stream())
-                    .collect(Collectors.toList());
+    private void shutDown() {
+        recognizer.stop();
+        playback.close();
+        if (uplink != null) {
+            uplink.close();
+        }
+        if (sessionRecorder != null) {
+            try {
+                sessionRecorder.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-            speechResults.getResults().stream().forEach(r -> r.getAlternatives().stream()
-                    .forEach(a -> System.out.print(a.getTranscript())));
-            System.out.println("$" + speechResults.isFinal());
+    private void report() {
+        if (uplink != null) {
+            System.out.println(uplink.report());
+        }
+        System.out.println("Replies: " + arbiter.getFired() + " played, "
+                + arbiter.getSuppressed() + " repeated hypotheses ignored");
+        System.out.println(Lane.reportAll());
+    }
 
-            // Play result for the first keyword;
-            if (kwds.size() > 0) {
-                String reply = keywords.get(kwds.get(0));
-                System.out.println(">>>" + reply);
-                playOutLoad(reply);
+    /**
+     * Moves to the state if the session is in one of the expected ones.
+     */
+    private boolean moveTo(State next, State... expected) {
+        synchronized (this) {
+            if (!Arrays.asList(expected).contains(state)) {
+                return false;
             }
+            state = next;
+        }
+        events.state(id, next.toString(), (System.nanoTime() - createdAt) / 1e6);
+        stateListeners.forEach(l -> l.accept(next));
+        return true;
+    }
+
+    private void playResponse(Recognition recognition) {
+        long arrived = System.nanoTime();
+        recognitionListeners.forEach(l -> l.accept(recognition));
+        bargeInOnNewUtterance(recognition);
+        events.transcript(id, recognition);
+
+        // Phrases found in the transcript so far come first, they show up on interim results
+        // long before the recognizer scores its keywords.
+        Script current = script;
+        Map<String, Double> spotted = new LinkedHashMap<>();
+        for (PhraseMatcher.Match match : current.phrases.scan(recognition.getUtterance(), recognition.getTranscript())) {
+            spotted.merge(match.getPhrase(), match.getConfidence(), Math::max);
+        }
+        recognition.getKeywords().forEach((k, c) -> spotted.merge(k, c, Math::max));
+
+        // Every hypothesis repeats the keywords, only reply once to each.
+        String keyword = arbiter.choose(recognition.getUtterance(), spotted);
+        Metrics.DECISION.recordSince(arrived);
+        String reply = keyword == null ? null : current.dialogue.reply(keyword);
+        if (reply != null) {
+            events.keyword(id, recognition.getUtterance(), keyword, spotted.get(keyword));
+            events.reply(id, recognition.getUtterance(), reply, (System.nanoTime() - arrived) / 1e6);
+            playOutLoad(reply);
+        }
+    }
+
+    /**
+     * The user started talking again, so whatever we are still saying is cut off.
+     */
+    private void bargeInOnNewUtterance(Recognition recognition) {
+        if (recognition.getUtterance() > lastUtterance && !recognition.getTranscript().trim().isEmpty()) {
+            lastUtterance = recognition.getUtterance();
+            playback.bargeIn();
         }
     }
 
     private void playOutLoad(String reply) {
-        Controller.worker.execute(() -> {
-            try (InputStream stream = textToSpeech.synthesize(reply,
-                        Voice.EN_LISA,
-                        com.ibm.watson.developer_cloud.text_to_speech.v1.model.AudioFormat.WAV)
-                        .execute()) {
-                System.out.println("PLAYING: " + reply);
-//                ByteArrayInputStream bas = new ByteArrayInputStream(IOUtils.toByteArray(stream));
-                Clip clip = AudioSystem.getClip();
-                AudioInputStream audio = AudioSystem.getAudioInputStream(WaveUtils.reWriteWaveHeader(stream));
-                clip.open(audio);
-                clip.start();
-                try {
-                    Thread.sleep(10000);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            } catch (LineUnavailableException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
-            } catch (UnsupportedAudioFileException e) {
-                e.printStackTrace();
-            }
-        });
-    }
-
-    private void processDialogue(String dialog) {
-        List<String> lines = Stream.of(dialog.split("\n"))
-                .map(l -> l.trim())
-                .filter(l -> !l.startsWith("#") && l.contains(":"))
-                .collect(Collectors.toList());
-
-        keywords = lines.stream()
-                .map(l -> l.split(":"))
-                .collect(Collectors.groupingBy(p -> p[0].trim().toLowerCase(), Collectors.toList()))
-                .entrySet()
-                .stream()
-                .collect(Collectors.toMap(e -> e.getKey(),
-                        e -> e.getValue().stream().map(p -> p[1]).findFirst().get()));
+        replyListeners.forEach(l -> l.accept(reply));
+        playback.enqueue(reply);
+    }
+
+    /**
+     * A dialogue with the phrase matcher built for it.
+     */
+    private static class Script {
+        final Dialogue dialogue;
+        final PhraseMatcher.Scanner phrases;
+
+        Script(Dialogue dialogue) {
+            this.dialogue = dialogue;
+            this.phrases = new PhraseMatcher(dialogue.keywords(), PHRASE_EDITS).scanner();
+        }
     }
 }
@@ -0,0 +1,117 @@
+package sample;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Keeps a dialogue compiled from a script file, compiling it again whenever the file changes.
+ *
+ * Compiles alternate between two index files next to the script, {@code .<script>.0.idx} and
+ * {@code .<script>.1.idx}, so the one being served is never written. An index is written aside and
+ * renamed into place, a session still mapping an older one keeps reading its own copy. Listeners
+ * get the new {@link Dialogue} on the watcher thread; a script that fails to compile leaves the
+ * current dialogue in place.
+ *
+ * @author naiemk
+ */
+public class DialogueWatcher implements AutoCloseable {
+    // Editors write a file in several steps, the script is read once they are done.
+    private static final long SETTLE_MILLIS = 100;
+
+    private final File script;
+    private final AtomicReference<Dialogue> current = new AtomicReference<>();
+    private final List<Consumer<Dialogue>> listeners = new CopyOnWriteArrayList<>();
+    private final WatchService watcher;
+    private int slot;
+
+    public DialogueWatcher(File script) throws IOException {
+        this.script = script.getAbsoluteFile();
+        current.set(compile());
+        watcher = FileSystems.getDefault().newWatchService();
+        this.script.getParentFile().toPath().register(watcher,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        Thread t = new Thread(this::watch, "dialogue-watch");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * The dialogue as of the last successful compile.
+     */
+    public Dialogue get() {
+        return current.get();
+    }
+
+    /**
+     * Calls the listener with every dialogue compiled from now on.
+     */
+    public DialogueWatcher onChange(Consumer<Dialogue> listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+
+    private void watch() {
+        Path name = script.toPath().getFileName();
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    changed |= name.equals(event.context());
+                }
+                key.reset();
+                if (changed) {
+                    Thread.sleep(SETTLE_MILLIS);
+                    for (WatchKey more = watcher.poll(); more != null; more = watcher.poll()) {
+                        more.pollEvents();
+                        more.reset();
+                    }
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed.
+        }
+    }
+
+    private void reload() {
+        long started = System.nanoTime();
+        try {
+            Dialogue dialogue = compile();
+            current.set(dialogue);
+            System.out.println(String.format("Reloaded %s: %d keywords in %.1f ms",
+                    script, dialogue.size(), (System.nanoTime() - started) / 1e6));
+            listeners.forEach(l -> l.accept(dialogue));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Dialogue compile() throws IOException {
+        File index = new File(script.getParentFile(), "." + script.getName() + "." + slot + ".idx");
+        File written = new File(index.getPath() + ".tmp");
+        Dialogue dialogue = Dialogue.compile(script, written);
+        Files.move(written.toPath(), index.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        slot = 1 - slot;
+        return dialogue;
+    }
+}
@@ -0,0 +1,493 @@
+package sample;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Transcripts, keywords, replies and state changes of every session, appended to one file per process.
+ *
+ * Logging an event only queues it on a lock-free queue, so the recognizer callbacks never wait
+ * for a disk or a console. A writer thread wakes up every {@value #FLUSH_ENV} milliseconds and
+ * writes whatever was queued as one block, then echoes final transcripts, replies and states to
+ * the console. Events are stamped with the wall clock when logged and never earlier than the
+ * event before them, so the file is sorted by time and {@link EventLogReader} can search it.
+ *
+ * The log holds a lock on its file. A process that finds the file locked by another writes to
+ * {@code <name>-<pid>.ble} next to it instead. Once a file grows past {@value #MAX_MB_ENV}
+ * megabytes it is renamed to {@code <name>-<yyyyMMdd-HHmmss>.ble} and a fresh one is started, and
+ * so is a file in another format.
+ *
+ * The file starts with {@link #MAGIC} and a version. A block is its length in bytes after the
+ * length field (int), the times of its first and last events (long milliseconds), the number of
+ * events (int), the events and the length again (int). An event is its type (byte), then as
+ * varints the milliseconds since the first event of the block, the session and the utterance,
+ * then 1 for final (byte), a value (float) and the text as a varint length and UTF-8. The length
+ * at the end lets a file that was closed cleanly be checked from its last block; a block cut
+ * short by a crash is found by walking the blocks and dropped when the file is opened again.
+ *
+ * @author naiemk
+ */
+public class EventLog implements AutoCloseable {
+    public static final String LOG_ENV = "BLUELOGUE_EVENT_LOG";
+    public static final String FLUSH_ENV = "BLUELOGUE_EVENT_LOG_FLUSH_MS";
+    public static final String MAX_MB_ENV = "BLUELOGUE_EVENT_LOG_MAX_MB";
+    public static final File DEFAULT_FILE =
+            new File(System.getProperty("user.home"), ".bluelogue" + File.separator + "events.ble");
+    public static final long DEFAULT_FLUSH_MILLIS = 200;
+    public static final long DEFAULT_MAX_MB = 64;
+    public static final int MAGIC = 0x424c4531;
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 8;
+    static final int BLOCK_HEADER_BYTES = 4 + 8 + 8 + 4;
+    static final int BLOCK_TRAILER_BYTES = 4;
+    // Keeps blocks small under load, so queries decode little and a crash loses little.
+    private static final int BLOCK_EVENTS = 4096;
+
+    public static final byte TRANSCRIPT = 1;
+    public static final byte KEYWORD = 2;
+    public static final byte REPLY = 3;
+    public static final byte STATE = 4;
+
+    private static final EventLog OFF = new EventLog();
+    private static volatile EventLog shared;
+
+    private volatile File file;
+    private FileChannel channel;
+    private final long flushNanos;
+    private long maxBytes;
+    private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+    private ByteBuffer block = ByteBuffer.allocate(64 * 1024);
+    private long lastMillis;
+    private volatile boolean closed;
+    private volatile long events;
+    private volatile long blocks;
+
+    // Drops everything: no file, no console, no writer thread.
+    private EventLog() {
+        flushNanos = 0;
+        writer = null;
+        closed = true;
+    }
+
+    public EventLog(File file, long flushMillis) throws IOException {
+        this(file, flushMillis, DEFAULT_MAX_MB << 20);
+    }
+
+    /**
+     * A log appending to the file, or only echoing to the console if the file is null.
+     *
+     * @param maxBytes size past which the file is renamed and a fresh one started.
+     */
+    public EventLog(File file, long flushMillis, long maxBytes) throws IOException {
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        this.maxBytes = maxBytes;
+        if (file != null) {
+            open(file.getAbsoluteFile());
+        }
+        writer = new Thread(this::write, "event-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * The log every session writes to: {@value #LOG_ENV}, or {@link #DEFAULT_FILE} if not set,
+     * or the console only if set to {@code off}. It is flushed when the JVM exits.
+     */
+    public static EventLog shared() {
+        EventLog log = shared;
+        if (log == null) {
+            synchronized (EventLog.class) {
+                log = shared;
+                if (log == null) {
+                    log = fromEnvironment();
+                    Runtime.getRuntime().addShutdownHook(new Thread(log::close, "event-log-close"));
+                    shared = log;
+                }
+            }
+        }
+        return log;
+    }
+
+    /**
+     * A log that drops every event, for sessions nobody reads the log of.
+     */
+    public static EventLog off() {
+        return OFF;
+    }
+
+    private static EventLog fromEnvironment() {
+        String path = System.getenv(LOG_ENV);
+        String flush = System.getenv(FLUSH_ENV);
+        String max = System.getenv(MAX_MB_ENV);
+        long flushMillis = flush == null ? DEFAULT_FLUSH_MILLIS : Long.parseLong(flush);
+        long maxBytes = (max == null ? DEFAULT_MAX_MB : Long.parseLong(max)) << 20;
+        File file = path == null ? DEFAULT_FILE : "off".equals(path) ? null : new File(path);
+        try {
+            return new EventLog(file, flushMillis, maxBytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+            try {
+                return new EventLog(null, flushMillis);
+            } catch (IOException impossible) {
+                throw new RuntimeException(impossible);
+            }
+        }
+    }
+
+    /**
+     * The file written to now, which changes when it rotates.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Events written so far.
+     */
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * Blocks written so far.
+     */
+    public long getBlocks() {
+        return blocks;
+    }
+
+    public void transcript(int session, Recognition recognition) {
+        log(new Event(TRANSCRIPT, session, recognition.getUtterance(), recognition.isFinal(), 0,
+                recognition.getTranscript()));
+    }
+
+    public void keyword(int session, int utterance, String keyword, double confidence) {
+        log(new Event(KEYWORD, session, utterance, false, (float) confidence, keyword));
+    }
+
+    /**
+     * A reply chosen in that many milliseconds after its hypothesis arrived.
+     */
+    public void reply(int session, int utterance, String reply, double decisionMillis) {
+        log(new Event(REPLY, session, utterance, false, (float) decisionMillis, reply));
+    }
+
+    /**
+     * A session state reached that many milliseconds after the session was created.
+     */
+    public void state(int session, String state, double millis) {
+        log(new Event(STATE, session, 0, false, (float) millis, state));
+    }
+
+    private void log(Event event) {
+        if (!closed) {
+            queue.offer(event);
+        }
+    }
+
+    /**
+     * Writes what is still queued and closes the file.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() {
+        try {
+            while (!closed) {
+                LockSupport.parkNanos(flushNanos);
+                flush();
+            }
+            flush();
+            if (channel != null) {
+                channel.force(false);
+                channel.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the queued events in blocks of up to {@link #BLOCK_EVENTS}.
+     */
+    private void flush() throws IOException {
+        for (Event first = queue.poll(); first != null; first = queue.poll()) {
+            write(first);
+            if (channel != null && channel.position() >= maxBytes) {
+                rotate();
+            }
+        }
+    }
+
+    /**
+     * Opens the file, or this process's own file next to it if another process holds the lock.
+     */
+    private void open(File wanted) throws IOException {
+        channel = lock(wanted);
+        file = wanted;
+        if (channel == null) {
+            String name = ManagementFactory.getRuntimeMXBean().getName();
+            file = sibling(wanted, name.substring(0, Math.max(0, name.indexOf('@'))));
+            channel = lock(file);
+            if (channel == null) {
+                throw new IOException(file + " is locked.");
+            }
+        }
+    }
+
+    /**
+     * Opens the file for appending and locks it, or returns null if it is locked already.
+     */
+    private static FileChannel lock(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.tryLock() == null) {
+                channel.close();
+                return null;
+            }
+            int version = EventLogReader.version(channel);
+            if (version != VERSION && version != 0) {
+                // Another format, or not a log at all: keep it and start over.
+                Files.move(file.toPath(), aside(file).toPath());
+                channel.close();
+                return lock(file);
+            }
+            long valid = EventLogReader.validLength(channel);
+            if (valid == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                channel.write(header, 0);
+                valid = HEADER_BYTES;
+            }
+            channel.truncate(valid);
+            channel.position(valid);
+            return channel;
+        } catch (OverlappingFileLockException e) {
+            // Another log in this process has it.
+            channel.close();
+            return null;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Renames the full file aside and starts a fresh one under its name.
+     */
+    private void rotate() throws IOException {
+        File full = file;
+        try {
+            Files.move(full.toPath(), aside(full).toPath());
+        } catch (IOException e) {
+            // Some systems cannot rename a file that is open, keep appending.
+            e.printStackTrace();
+            maxBytes = Long.MAX_VALUE;
+            return;
+        }
+        channel.force(false);
+        channel.close();
+        try {
+            open(full);
+        } catch (IOException e) {
+            e.printStackTrace();
+            channel = null;
+        }
+    }
+
+    private static File aside(File file) {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File aside = sibling(file, stamp);
+        for (int i = 1; aside.exists(); i++) {
+            aside = sibling(file, stamp + "-" + i);
+        }
+        return aside;
+    }
+
+    /**
+     * {@code <name>-<suffix>.<extension>} in the same directory.
+     */
+    private static File sibling(File file, String suffix) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? new File(file.getParentFile(), name + "-" + suffix)
+                : new File(file.getParentFile(), name.substring(0, dot) + "-" + suffix + name.substring(dot));
+    }
+
+    /**
+     * Writes the event and those queued after it as one block.
+     */
+    private void write(Event first) throws IOException {
+        block.clear();
+        block.position(BLOCK_HEADER_BYTES);
+        long firstMillis = Math.max(lastMillis, first.millis);
+        int count = 0;
+        StringBuilder echo = new StringBuilder();
+        Event event = first;
+        while (event != null) {
+            event.millis = Math.max(lastMillis, event.millis);
+            lastMillis = event.millis;
+            encode(event, firstMillis);
+            count++;
+            if (event.type != KEYWORD && (event.type != TRANSCRIPT || event.isFinal)) {
+                echo.append(event).append(System.lineSeparator());
+            }
+            event = count < BLOCK_EVENTS ? queue.poll() : null;
+        }
+        int length = block.position() - 4 + BLOCK_TRAILER_BYTES;
+        ensure(BLOCK_TRAILER_BYTES);
+        block.putInt(length);
+        block.putInt(0, length);
+        block.putLong(4, firstMillis);
+        block.putLong(12, lastMillis);
+        block.putInt(20, count);
+        block.flip();
+        if (channel != null) {
+            while (block.hasRemaining()) {
+                channel.write(block);
+            }
+        }
+        events += count;
+        blocks++;
+        if (echo.length() > 0) {
+            System.out.print(echo);
+        }
+    }
+
+    private void encode(Event event, long firstMillis) {
+        byte[] text = event.text.getBytes(StandardCharsets.UTF_8);
+        ensure(1 + 3 * 10 + 1 + 4 + 5 + text.length);
+        block.put(event.type);
+        putVarLong(block, event.millis - firstMillis);
+        putVarLong(block, event.session);
+        putVarLong(block, event.utterance);
+        block.put((byte) (event.isFinal ? 1 : 0));
+        block.putFloat(event.value);
+        putVarLong(block, text.length);
+        block.put(text);
+    }
+
+    private void ensure(int bytes) {
+        if (block.remaining() < bytes) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(block.capacity() * 2, block.position() + bytes));
+            block.flip();
+            bigger.put(block);
+            block = bigger;
+        }
+    }
+
+    static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.put((byte) (value & 0x7f | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * One logged event. The value is the keyword confidence for keywords, the decision time in
+     * milliseconds for replies and the time since the session was created for states.
+     */
+    public static class Event {
+        private final byte type;
+        private final int session;
+        private final int utterance;
+        private final boolean isFinal;
+        private final float value;
+        private final String text;
+        private long millis;
+
+        Event(byte type, int session, int utterance, boolean isFinal, float value, String text) {
+            this(System.currentTimeMillis(), type, session, utterance, isFinal, value, text);
+        }
+
+        Event(long millis, byte type, int session, int utterance, boolean isFinal, float value, String text) {
+            this.millis = millis;
+            this.type = type;
+            this.session = session;
+            this.utterance = utterance;
+            this.isFinal = isFinal;
+            this.value = value;
+            this.text = text;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public int getSession() {
+            return session;
+        }
+
+        public int getUtterance() {
+            return utterance;
+        }
+
+        public boolean isFinal() {
+            return isFinal;
+        }
+
+        public float getValue() {
+            return value;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        @Override
+        public String toString() {
+            String time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(millis));
+            switch (type) {
+                case TRANSCRIPT:
+                    return String.format("%s #%d %d%s %s", time, session, utterance, isFinal ? "$" : "~", text);
+                case KEYWORD:
+                    return String.format("%s #%d %d keyword %s (%.2f)", time, session, utterance, text, value);
+                case REPLY:
+                    return String.format("%s #%d %d >>> %s (%.1f ms)", time, session, utterance, text, value);
+                default:
+                    return String.format("%s #%d %s after %.0f ms", time, session, text, value);
+            }
+        }
+    }
+}
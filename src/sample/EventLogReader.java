@@ -0,0 +1,234 @@
+package sample;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Time range queries over a file written by {@link EventLog}.
+ *
+ * Opening the file only walks the block headers, keeping the offset and time span of every block
+ * as a sparse index. A query binary searches that index for the first block that reaches the
+ * start of the range and decodes blocks from there until they begin after its end, so hours of
+ * log cost the same to query as the few blocks in range.
+ *
+ * Usage: {@code EventLogReader <log file> [from] [to]}, with times as epoch milliseconds or
+ * {@code yyyy-MM-dd HH:mm[:ss]} in the local time zone.
+ *
+ * @author naiemk
+ */
+public class EventLogReader implements AutoCloseable {
+    private final FileChannel channel;
+    private final long end;
+    private long[] offsets = new long[64];
+    private long[] firstMillis = new long[64];
+    private long[] lastMillis = new long[64];
+    private int blocks;
+    private long events;
+    private ByteBuffer block = ByteBuffer.allocate(64 * 1024);
+
+    public EventLogReader(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            end = validLength(channel);
+            if (end < 0) {
+                throw new IOException(file + " is not an event log.");
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        ByteBuffer header = ByteBuffer.allocate(EventLog.BLOCK_HEADER_BYTES);
+        for (long at = EventLog.HEADER_BYTES; at < end; at += 4 + header.getInt(0)) {
+            header.clear();
+            readFully(header, at);
+            if (blocks == offsets.length) {
+                offsets = Arrays.copyOf(offsets, blocks * 2);
+                firstMillis = Arrays.copyOf(firstMillis, blocks * 2);
+                lastMillis = Arrays.copyOf(lastMillis, blocks * 2);
+            }
+            offsets[blocks] = at;
+            firstMillis[blocks] = header.getLong(4);
+            lastMillis[blocks] = header.getLong(12);
+            events += header.getInt(20);
+            blocks++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: EventLogReader <log file> [from] [to]");
+            System.exit(2);
+        }
+        long from = args.length > 1 ? time(args[1]) : Long.MIN_VALUE;
+        long to = args.length > 2 ? time(args[2]) : Long.MAX_VALUE;
+        try (EventLogReader reader = new EventLogReader(new File(args[0]))) {
+            long started = System.nanoTime();
+            long[] found = new long[1];
+            reader.forEach(from, to, e -> {
+                System.out.println(e);
+                found[0]++;
+            });
+            System.out.println(String.format("%d of %d events in %d blocks, %.1f ms",
+                    found[0], reader.getEvents(), reader.getBlocks(), (System.nanoTime() - started) / 1e6));
+        }
+    }
+
+    public int getBlocks() {
+        return blocks;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    /**
+     * The events logged between the two times, both inclusive, in the order they were logged.
+     */
+    public List<EventLog.Event> read(long fromMillis, long toMillis) throws IOException {
+        List<EventLog.Event> found = new ArrayList<>();
+        forEach(fromMillis, toMillis, found::add);
+        return found;
+    }
+
+    /**
+     * Calls the consumer with every event logged between the two times, both inclusive.
+     */
+    public void forEach(long fromMillis, long toMillis, Consumer<EventLog.Event> consumer) throws IOException {
+        for (int b = firstBlockReaching(fromMillis); b < blocks && firstMillis[b] <= toMillis; b++) {
+            ByteBuffer in = readBlock(b);
+            in.position(20);
+            long first = firstMillis[b];
+            for (int n = in.getInt(); n > 0; n--) {
+                byte type = in.get();
+                long millis = first + EventLog.getVarLong(in);
+                int session = (int) EventLog.getVarLong(in);
+                int utterance = (int) EventLog.getVarLong(in);
+                boolean isFinal = in.get() == 1;
+                float value = in.getFloat();
+                byte[] text = new byte[(int) EventLog.getVarLong(in)];
+                in.get(text);
+                if (millis > toMillis) {
+                    return;
+                }
+                if (millis >= fromMillis) {
+                    consumer.accept(new EventLog.Event(millis, type, session, utterance, isFinal, value,
+                            new String(text, StandardCharsets.UTF_8)));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads the whole of a block, header included, into the reused buffer.
+     */
+    private ByteBuffer readBlock(int b) throws IOException {
+        long length = (b + 1 < blocks ? offsets[b + 1] : end) - offsets[b];
+        if (block.capacity() < length) {
+            block = ByteBuffer.allocate((int) length);
+        }
+        block.clear().limit((int) length);
+        readFully(block, offsets[b]);
+        block.flip();
+        return block;
+    }
+
+    private void readFully(ByteBuffer into, long at) throws IOException {
+        while (into.hasRemaining()) {
+            if (channel.read(into, at + into.position()) < 0) {
+                throw new IOException("Event log ends inside a block at " + at);
+            }
+        }
+    }
+
+    private int firstBlockReaching(long millis) {
+        int low = 0;
+        int high = blocks;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lastMillis[mid] < millis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The format version of the file, 0 if it is empty and -1 if it is not an event log.
+     */
+    static int version(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size == 0) {
+            return 0;
+        }
+        ByteBuffer header = ByteBuffer.allocate(EventLog.HEADER_BYTES);
+        if (size < EventLog.HEADER_BYTES || channel.read(header, 0) < EventLog.HEADER_BYTES
+                || header.getInt(0) != EventLog.MAGIC || header.getInt(4) < 1 || header.getInt(4) > EventLog.VERSION) {
+            return -1;
+        }
+        return header.getInt(4);
+    }
+
+    /**
+     * The length of the file up to the end of its last complete block, 0 if it is empty and -1 if
+     * it is not an event log. A file whose last block ends in its own length is taken as complete
+     * without walking the blocks before it.
+     */
+    static long validLength(FileChannel channel) throws IOException {
+        int version = version(channel);
+        if (version <= 0) {
+            return version;
+        }
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(EventLog.BLOCK_HEADER_BYTES);
+        if (version >= 2 && size >= EventLog.HEADER_BYTES + EventLog.BLOCK_HEADER_BYTES + EventLog.BLOCK_TRAILER_BYTES) {
+            header.limit(4);
+            channel.read(header, size - 4);
+            int length = header.getInt(0);
+            long last = size - 4 - length;
+            if (length >= EventLog.BLOCK_HEADER_BYTES && last >= EventLog.HEADER_BYTES) {
+                header.clear().limit(4);
+                channel.read(header, last);
+                if (header.getInt(0) == length) {
+                    return size;
+                }
+            }
+        }
+        long at = EventLog.HEADER_BYTES;
+        while (at + EventLog.BLOCK_HEADER_BYTES <= size) {
+            header.clear().limit(4);
+            channel.read(header, at);
+            int length = header.getInt(0);
+            long next = at + 4 + length;
+            if (length < EventLog.BLOCK_HEADER_BYTES - 4 || next > size) {
+                break;
+            }
+            at = next;
+        }
+        return at;
+    }
+
+    private static long time(String value) throws ParseException {
+        if (value.matches("\\d+")) {
+            return Long.parseLong(value);
+        }
+        String pattern = value.length() > 16 ? "yyyy-MM-dd HH:mm:ss" : "yyyy-MM-dd HH:mm";
+        return new SimpleDateFormat(pattern).parse(value).getTime();
+    }
+}
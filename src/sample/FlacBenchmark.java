@@ -0,0 +1,392 @@
+package sample;
+
+import org.apache.commons.io.IOUtils;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Reports the compression ratio and encoding cost of the FLAC uplink.
+ * Run with {@code java sample.FlacBenchmark [file.wav]}; without a file it encodes a minute of
+ * synthetic voiced and unvoiced sound with pauses.
+ *
+ * Every block size is also decoded back, along with silence, full scale noise and a full scale
+ * square wave, by a small decoder written from the format specification rather than from
+ * {@link FlacEncoder}. It checks the frame sync, numbers and both CRCs, rebuilds the samples
+ * from the residuals, and exits with status 1 if anything differs from the input PCM.
+ *
+ * @author naiemk
+ */
+public class FlacBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        byte[] pcm = args.length > 0 ? readWave(new File(args[0])) : synthetic(60);
+        double audioSeconds = pcm.length / (double) Recorder.AUDIO_FORMAT.getFrameSize()
+                / Recorder.AUDIO_FORMAT.getSampleRate();
+
+        for (int blockSize : new int[] {256, 512, 1024, 2048, 4096}) {
+            double ratio = 0;
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                FlacInputStream flac = new FlacInputStream(new ByteArrayInputStream(pcm),
+                        Recorder.AUDIO_FORMAT, blockSize);
+                drain(flac);
+                best = Math.min(best, System.nanoTime() - start);
+                ratio = flac.getCompressionRatio();
+            }
+
+            double blockMillis = 1000.0 * blockSize / Recorder.AUDIO_FORMAT.getSampleRate();
+            System.out.printf("block %4d (%5.1f ms): ratio %.3f, %.0f kbit/s, %.2f ms to encode 1 s of audio%n",
+                    blockSize, blockMillis, ratio,
+                    ratio * Recorder.AUDIO_FORMAT.getSampleRate() * Recorder.AUDIO_FORMAT.getFrameSize() * 8 / 1000,
+                    best / 1e6 / audioSeconds);
+        }
+
+        boolean ok = true;
+        for (int blockSize : new int[] {256, 512, 1024, 2048, 4096}) {
+            ok &= check("input", pcm, blockSize);
+            ok &= check("silence", edge(0, blockSize * 3 + 5), blockSize);
+            ok &= check("noise", edge(1, blockSize * 3 + 5), blockSize);
+            ok &= check("square", edge(2, blockSize * 3 + 5), blockSize);
+        }
+
+        if (!ok) {
+            System.out.println("FLAC output does not decode to the input.");
+            System.exit(1);
+        }
+        System.out.println("All outputs decode bit exact.");
+    }
+
+    private static boolean check(String name, byte[] pcm, int blockSize) throws IOException {
+        byte[] flac = IOUtils.toByteArray(new FlacInputStream(new ByteArrayInputStream(pcm),
+                Recorder.AUDIO_FORMAT, blockSize));
+        int[] samples;
+        try {
+            samples = new Decoder(flac).decode();
+        } catch (IOException e) {
+            System.out.printf("block %4d, %s: %s%n", blockSize, name, e.getMessage());
+            return false;
+        }
+
+        if (samples.length != pcm.length / 2) {
+            System.out.printf("block %4d, %s: decoded %d samples of %d%n",
+                    blockSize, name, samples.length, pcm.length / 2);
+            return false;
+        }
+        for (int i = 0; i < samples.length; i++) {
+            short expected = (short) ((pcm[2 * i] << 8) | (pcm[2 * i + 1] & 0xff));
+            if (samples[i] != expected) {
+                System.out.printf("block %4d, %s: sample %d is %d, expected %d%n",
+                        blockSize, name, i, samples[i], expected);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        while (in.read(buffer, 0, buffer.length) >= 0) {
+            // Just encoding.
+        }
+    }
+
+    private static byte[] readWave(File file) throws Exception {
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(file);
+             AudioInputStream audio = AudioSystem.getAudioInputStream(Recorder.AUDIO_FORMAT, in)) {
+            return IOUtils.toByteArray(audio);
+        }
+    }
+
+    /**
+     * Harmonic "vowels", noisy "fricatives" and quiet pauses, at speech-like levels.
+     */
+    private static byte[] synthetic(int seconds) {
+        AudioFormat format = Recorder.AUDIO_FORMAT;
+        int rate = (int) format.getSampleRate();
+        byte[] pcm = new byte[seconds * rate * 2];
+        Random random = new Random(11);
+        double phase = 0;
+        for (int i = 0; i < seconds * rate; i++) {
+            int segment = (i / (rate / 4)) % 6;
+            double pitch = 110 + 40 * Math.sin(i * 2 * Math.PI / rate / 3);
+            phase += 2 * Math.PI * pitch / rate;
+            double v;
+            if (segment < 3) {
+                v = 0.2 * Math.sin(phase) + 0.1 * Math.sin(2 * phase) + 0.05 * Math.sin(3 * phase)
+                        + 0.002 * random.nextGaussian();
+            } else if (segment == 3) {
+                v = 0.05 * random.nextGaussian();
+            } else {
+                v = 0.002 * random.nextGaussian();
+            }
+            short s = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v * 32767));
+            pcm[2 * i] = (byte) (s >> 8);
+            pcm[2 * i + 1] = (byte) s;
+        }
+        return pcm;
+    }
+
+    /**
+     * Big endian PCM for the encoder's corner cases: 0 is silence (constant subframes), 1 full
+     * scale noise (verbatim), 2 a square wave between the extremes (the largest residuals).
+     */
+    private static byte[] edge(int kind, int samples) {
+        byte[] pcm = new byte[samples * 2];
+        Random random = new Random(7);
+        for (int i = 0; i < samples; i++) {
+            short s = kind == 0 ? 0
+                    : kind == 1 ? (short) random.nextInt()
+                    : (i / 3) % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE;
+            pcm[2 * i] = (byte) (s >> 8);
+            pcm[2 * i + 1] = (byte) s;
+        }
+        return pcm;
+    }
+
+    /**
+     * Decodes the subset of FLAC the uplink produces: one channel, fixed block size, constant,
+     * verbatim and fixed subframes with Rice coded residuals. Anything else is an error.
+     */
+    private static class Decoder {
+        private final byte[] data;
+        private long bit;
+        private int bitsPerSample;
+        private int streamBlockSize;
+
+        Decoder(byte[] data) {
+            this.data = data;
+        }
+
+        int[] decode() throws IOException {
+            if (read(32) != 0x664c6143) {
+                throw new IOException("no fLaC marker");
+            }
+            int header = read(8);
+            int length = read(24);
+            if (header != 0x80 || length != 34) {
+                throw new IOException("expected a single STREAMINFO block, got " + header + "/" + length);
+            }
+            long start = bit;
+            streamBlockSize = read(16);
+            read(16);
+            read(24);
+            read(24);
+            int rate = read(20);
+            int channels = read(3) + 1;
+            bitsPerSample = read(5) + 1;
+            if (rate != (int) Recorder.AUDIO_FORMAT.getSampleRate() || channels != 1 || bitsPerSample != 16) {
+                throw new IOException("STREAMINFO says " + rate + " Hz, " + channels + " channels, "
+                        + bitsPerSample + " bit");
+            }
+            bit = start + 34 * 8;
+
+            int[] samples = new int[0];
+            int count = 0;
+            for (long number = 0; bit < data.length * 8L; number++) {
+                int[] block = frame(number);
+                if (count + block.length > samples.length) {
+                    samples = Arrays.copyOf(samples, Math.max(2 * samples.length, count + block.length));
+                }
+                System.arraycopy(block, 0, samples, count, block.length);
+                count += block.length;
+            }
+            return Arrays.copyOf(samples, count);
+        }
+
+        private int[] frame(long expected) throws IOException {
+            int start = (int) (bit / 8);
+            if (read(14) != 0x3ffe || read(1) != 0 || read(1) != 0) {
+                throw new IOException("frame " + expected + ": bad sync at byte " + start);
+            }
+            int sizeCode = read(4);
+            int rateCode = read(4);
+            int channel = read(4);
+            int depthCode = read(3);
+            if (read(1) != 0 || channel != 0 || rateCode == 15 || (depthCode != 0 && depthCode != 4)) {
+                throw new IOException("frame " + expected + ": unexpected header fields");
+            }
+
+            long number = utf8();
+            if (number != expected) {
+                throw new IOException("frame " + expected + " is numbered " + number);
+            }
+            int size = sizeCode == 6 ? read(8) + 1
+                    : sizeCode == 7 ? read(16) + 1
+                    : sizeCode == 1 ? 192
+                    : sizeCode >= 8 ? 256 << (sizeCode - 8)
+                    : sizeCode >= 2 ? 576 << (sizeCode - 2)
+                    : -1;
+            if (size < 1 || size > streamBlockSize) {
+                throw new IOException("frame " + expected + ": block size code " + sizeCode);
+            }
+            if (rateCode == 12) {
+                read(8);
+            } else if (rateCode == 13 || rateCode == 14) {
+                read(16);
+            }
+
+            int crc8 = crc(start, (int) (bit / 8), 8, 0x07);
+            if (read(8) != crc8) {
+                throw new IOException("frame " + expected + ": header CRC mismatch");
+            }
+
+            int[] samples = subframe(size, expected);
+
+            bit = (bit + 7) & ~7L;
+            int crc16 = crc(start, (int) (bit / 8), 16, 0x8005);
+            if (read(16) != crc16) {
+                throw new IOException("frame " + expected + ": frame CRC mismatch");
+            }
+            return samples;
+        }
+
+        private int[] subframe(int size, long frame) throws IOException {
+            if (read(1) != 0) {
+                throw new IOException("frame " + frame + ": bad subframe padding");
+            }
+            int type = read(6);
+            int wasted = 0;
+            if (read(1) == 1) {
+                wasted = 1;
+                while (read(1) == 0) {
+                    wasted++;
+                }
+            }
+            int depth = bitsPerSample - wasted;
+
+            int[] samples = new int[size];
+            if (type == 0) {
+                Arrays.fill(samples, signed(depth));
+            } else if (type == 1) {
+                for (int i = 0; i < size; i++) {
+                    samples[i] = signed(depth);
+                }
+            } else if (type >= 8 && type <= 12) {
+                int order = type - 8;
+                for (int i = 0; i < order; i++) {
+                    samples[i] = signed(depth);
+                }
+                residual(samples, order, frame);
+                predict(samples, order);
+            } else {
+                throw new IOException("frame " + frame + ": subframe type " + type);
+            }
+
+            for (int i = 0; wasted > 0 && i < size; i++) {
+                samples[i] <<= wasted;
+            }
+            return samples;
+        }
+
+        private void residual(int[] samples, int order, long frame) throws IOException {
+            int method = read(2);
+            if (method > 1) {
+                throw new IOException("frame " + frame + ": residual method " + method);
+            }
+            int parameterBits = method == 0 ? 4 : 5;
+            int escape = (1 << parameterBits) - 1;
+            int partitionOrder = read(4);
+            int partitions = 1 << partitionOrder;
+            if (samples.length % partitions != 0 || samples.length / partitions < order) {
+                throw new IOException("frame " + frame + ": partition order " + partitionOrder);
+            }
+
+            int i = order;
+            for (int p = 0; p < partitions; p++) {
+                int end = (p + 1) * (samples.length / partitions);
+                int k = read(parameterBits);
+                if (k == escape) {
+                    int raw = read(5);
+                    for (; i < end; i++) {
+                        samples[i] = raw == 0 ? 0 : signed(raw);
+                    }
+                    continue;
+                }
+                for (; i < end; i++) {
+                    long quotient = 0;
+                    while (read(1) == 0) {
+                        quotient++;
+                    }
+                    long folded = (quotient << k) | (k == 0 ? 0 : read(k));
+                    samples[i] = (int) ((folded >>> 1) ^ -(folded & 1));
+                }
+            }
+        }
+
+        /**
+         * Turns the residuals after the warm-up samples back into samples, in place.
+         */
+        private static void predict(int[] x, int order) {
+            for (int i = order; i < x.length; i++) {
+                switch (order) {
+                    case 1: x[i] += x[i - 1]; break;
+                    case 2: x[i] += 2 * x[i - 1] - x[i - 2]; break;
+                    case 3: x[i] += 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3]; break;
+                    case 4: x[i] += 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4]; break;
+                    default: break;
+                }
+            }
+        }
+
+        private long utf8() throws IOException {
+            int first = read(8);
+            int ones = Integer.numberOfLeadingZeros(~(first << 24));
+            if (ones == 1 || ones > 7) {
+                throw new IOException("bad frame number encoding");
+            }
+            if (ones == 0) {
+                return first;
+            }
+            long value = first & (0x7f >> ones);
+            for (int i = 1; i < ones; i++) {
+                int next = read(8);
+                if ((next & 0xc0) != 0x80) {
+                    throw new IOException("bad frame number encoding");
+                }
+                value = (value << 6) | (next & 0x3f);
+            }
+            return value;
+        }
+
+        /**
+         * Bit at a time MSB first CRC with zero initial value, over bytes [from, to).
+         */
+        private int crc(int from, int to, int width, int polynomial) {
+            int top = 1 << (width - 1);
+            int mask = (1 << width) - 1;
+            int crc = 0;
+            for (int i = from; i < to; i++) {
+                crc ^= (data[i] & 0xff) << (width - 8);
+                for (int b = 0; b < 8; b++) {
+                    crc = (crc & top) != 0 ? ((crc << 1) ^ polynomial) & mask : (crc << 1) & mask;
+                }
+            }
+            return crc;
+        }
+
+        private int signed(int bits) throws IOException {
+            return read(bits) << (32 - bits) >> (32 - bits);
+        }
+
+        private int read(int bits) throws IOException {
+            if (bit + bits > data.length * 8L) {
+                throw new IOException("stream ends in the middle of a frame");
+            }
+            int value = 0;
+            for (int i = 0; i < bits; i++, bit++) {
+                value = (value << 1) | ((data[(int) (bit >> 3)] >> (7 - (int) (bit & 7))) & 1);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package sample;
+
+/**
+ * Streaming FLAC encoder for mono PCM.
+ *
+ * Every block is encoded on its own as soon as it is complete, so latency is bounded by one block.
+ * Subframes use FLAC's fixed polynomial predictors (order 0 to 4) with partitioned Rice coded
+ * residuals; blocks that would not shrink are stored verbatim and silent blocks as constants.
+ * The stream header announces an unknown length, as it has to when the audio is still coming.
+ * Buffers are allocated once, an instance is meant to be used from one thread.
+ *
+ * @author naiemk
+ */
+public class FlacEncoder {
+    // 32 ms at 16 kHz, one bus frame.
+    public static final int DEFAULT_BLOCK_SIZE = 512;
+
+    private static final int MAX_ORDER = 4;
+    private static final int MAX_PARTITION_ORDER = 6;
+    private static final int MAX_RICE_PARAMETER = 14;
+
+    private final int sampleRate;
+    private final int bitsPerSample;
+    private final int blockSize;
+
+    private final int[][] residuals = new int[MAX_ORDER + 1][];
+    private final BitWriter out;
+    private long frameNumber;
+
+    public FlacEncoder(int sampleRate, int bitsPerSample, int blockSize) {
+        if (bitsPerSample < 4 || bitsPerSample > 24) {
+            throw new IllegalArgumentException("Unsupported sample size: " + bitsPerSample);
+        }
+        if (blockSize < 16 || blockSize > 65535) {
+            throw new IllegalArgumentException("Unsupported block size: " + blockSize);
+        }
+
+        this.sampleRate = sampleRate;
+        this.bitsPerSample = bitsPerSample;
+        this.blockSize = blockSize;
+        for (int order = 0; order <= MAX_ORDER; order++) {
+            residuals[order] = new int[blockSize];
+        }
+        this.out = new BitWriter(maxFrameBytes());
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Upper bound of the size of one encoded frame.
+     */
+    public int maxFrameBytes() {
+        // Header and footer, then a verbatim subframe and its header.
+        return 18 + (blockSize * bitsPerSample + 7) / 8 + 1;
+    }
+
+    /**
+     * The "fLaC" marker followed by the STREAMINFO block, to be sent once before any frame.
+     */
+    public byte[] streamHeader() {
+        BitWriter header = new BitWriter(42);
+        header.write('f', 8);
+        header.write('L', 8);
+        header.write('a', 8);
+        header.write('C', 8);
+        header.write(1, 1);           // last metadata block
+        header.write(0, 7);           // STREAMINFO
+        header.write(34, 24);
+        header.write(blockSize, 16);  // min block size
+        header.write(blockSize, 16);  // max block size
+        header.write(0, 24);          // min frame size unknown
+        header.write(0, 24);          // max frame size unknown
+        header.write(sampleRate, 20);
+        header.write(0, 3);           // one channel
+        header.write(bitsPerSample - 1, 5);
+        header.write(0, 4);           // total samples unknown
+        header.write(0, 32);
+        for (int i = 0; i < 4; i++) {
+            header.write(0, 32);      // no MD5, the signature is not known while streaming
+        }
+        return header.toByteArray();
+    }
+
+    /**
+     * Encodes one block of samples, which only the last block may have fewer than the block size of.
+     *
+     * @return number of bytes written to {@code frame}, which must hold {@link #maxFrameBytes()}.
+     */
+    public int encode(int[] samples, int count, byte[] frame) {
+        if (count < 1 || count > blockSize) {
+            throw new IllegalArgumentException("Block of " + count + " samples");
+        }
+
+        out.reset(frame);
+        writeFrameHeader(count);
+        writeSubframe(samples, count);
+        out.alignToByte();
+        int crc = Crc.crc16(frame, 0, out.length());
+        out.write(crc, 16);
+        frameNumber++;
+        return out.length();
+    }
+
+    private void writeFrameHeader(int count) {
+        int blockSizeCode = blockSizeCode(count);
+        out.write(0x3FFE, 14);        // sync
+        out.write(0, 1);
+        out.write(0, 1);              // fixed block size stream
+        out.write(blockSizeCode, 4);
+        out.write(sampleRateCode(), 4);
+        out.write(0, 4);              // mono
+        out.write(sampleSizeCode(), 3);
+        out.write(0, 1);
+        writeUtf8(frameNumber);
+        if (blockSizeCode == 6) {
+            out.write(count - 1, 8);
+        } else if (blockSizeCode == 7) {
+            out.write(count - 1, 16);
+        }
+        if (sampleRateCode() == 12) {
+            out.write(sampleRate / 1000, 8);
+        }
+        out.alignToByte();
+        out.write(Crc.crc8(out.buffer(), 0, out.length()), 8);
+    }
+
+    private void writeSubframe(int[] samples, int count) {
+        boolean constant = true;
+        for (int i = 1; i < count && constant; i++) {
+            constant = samples[i] == samples[0];
+        }
+        if (constant) {
+            out.write(0, 1);
+            out.write(0, 6);
+            out.write(0, 1);
+            out.writeSigned(samples[0], bitsPerSample);
+            return;
+        }
+
+        // Pick the predictor leaving the smallest residual.
+        int bestOrder = 0;
+        long bestSum = Long.MAX_VALUE;
+        for (int order = 0; order <= Math.min(MAX_ORDER, count - 1); order++) {
+            long sum = predict(samples, count, order, residuals[order]);
+            if (sum < bestSum) {
+                bestSum = sum;
+                bestOrder = order;
+            }
+        }
+
+        int[] residual = residuals[bestOrder];
+        int bestPartitionOrder = 0;
+        long bestBits = Long.MAX_VALUE;
+        for (int p = 0; p <= MAX_PARTITION_ORDER; p++) {
+            if ((count & ((1 << p) - 1)) != 0 || (count >> p) <= bestOrder) {
+                break;
+            }
+            long bits = partitionBits(residual, count, bestOrder, p, false);
+            if (bits < bestBits) {
+                bestBits = bits;
+                bestPartitionOrder = p;
+            }
+        }
+
+        long fixedBits = 8 + (long) bestOrder * bitsPerSample + 6 + bestBits;
+        long verbatimBits = 8 + (long) count * bitsPerSample;
+        if (fixedBits >= verbatimBits) {
+            out.write(0, 1);
+            out.write(1, 6);
+            out.write(0, 1);
+            for (int i = 0; i < count; i++) {
+                out.writeSigned(samples[i], bitsPerSample);
+            }
+            return;
+        }
+
+        out.write(0, 1);
+        out.write(8 | bestOrder, 6);
+        out.write(0, 1);
+        for (int i = 0; i < bestOrder; i++) {
+            out.writeSigned(samples[i], bitsPerSample);
+        }
+        out.write(0, 2);              // Rice coding with 4 bit parameters
+        out.write(bestPartitionOrder, 4);
+        partitionBits(residual, count, bestOrder, bestPartitionOrder, true);
+    }
+
+    /**
+     * Fills the residual of the fixed predictor of the given order and returns its absolute sum.
+     */
+    private static long predict(int[] x, int count, int order, int[] residual) {
+        long sum = 0;
+        for (int i = order; i < count; i++) {
+            int r;
+            switch (order) {
+                case 0: r = x[i]; break;
+                case 1: r = x[i] - x[i - 1]; break;
+                case 2: r = x[i] - 2 * x[i - 1] + x[i - 2]; break;
+                case 3: r = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3]; break;
+                default: r = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4]; break;
+            }
+            residual[i] = r;
+            sum += Math.abs((long) r);
+        }
+        return sum;
+    }
+
+    /**
+     * Size in bits of the residual coded with the given partition order, each partition with its
+     * best Rice parameter. Writes it out as well when {@code write} is set.
+     */
+    private long partitionBits(int[] residual, int count, int order, int partitionOrder, boolean write) {
+        int partitions = 1 << partitionOrder;
+        int size = count >> partitionOrder;
+        long total = 0;
+        for (int p = 0; p < partitions; p++) {
+            int from = p == 0 ? order : p * size;
+            int to = (p + 1) * size;
+            long sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += fold(residual[i]);
+            }
+
+            int n = to - from;
+            int k = riceParameter(sum, n);
+            long bits = riceBits(residual, from, to, k);
+            // The estimate from the mean is close, one step either way settles it.
+            long down = k > 0 ? riceBits(residual, from, to, k - 1) : Long.MAX_VALUE;
+            long up = k < MAX_RICE_PARAMETER ? riceBits(residual, from, to, k + 1) : Long.MAX_VALUE;
+            if (down < bits) {
+                bits = down;
+                k--;
+            } else if (up < bits) {
+                bits = up;
+                k++;
+            }
+            total += 4 + bits;
+
+            if (write) {
+                out.write(k, 4);
+                for (int i = from; i < to; i++) {
+                    out.writeRice(fold(residual[i]), k);
+                }
+            }
+        }
+        return total;
+    }
+
+    private static int riceParameter(long sum, int n) {
+        if (n == 0 || sum < n) {
+            return 0;
+        }
+        int k = 63 - Long.numberOfLeadingZeros(sum / n);
+        return Math.min(k, MAX_RICE_PARAMETER);
+    }
+
+    private static long riceBits(int[] residual, int from, int to, int k) {
+        long bits = (long) (to - from) * (k + 1);
+        for (int i = from; i < to; i++) {
+            bits += fold(residual[i]) >>> k;
+        }
+        return bits;
+    }
+
+    /**
+     * Maps signed residuals to unsigned ones: 0, -1, 1, -2, 2... become 0, 1, 2, 3, 4...
+     */
+    private static long fold(int r) {
+        return r >= 0 ? 2L * r : -2L * r - 1;
+    }
+
+    private void writeUtf8(long value) {
+        if (value < 0x80) {
+            out.write((int) value, 8);
+            return;
+        }
+        int bytes = value < 0x800 ? 2 : value < 0x10000 ? 3 : value < 0x200000 ? 4 : value < 0x4000000 ? 5 : 6;
+        int shift = 6 * (bytes - 1);
+        out.write((0xFF00 >> bytes) & 0xFF | (int) (value >>> shift), 8);
+        while (shift > 0) {
+            shift -= 6;
+            out.write(0x80 | (int) ((value >>> shift) & 0x3F), 8);
+        }
+    }
+
+    private static int blockSizeCode(int count) {
+        switch (count) {
+            case 192: return 1;
+            case 576: return 2;
+            case 1152: return 3;
+            case 2304: return 4;
+            case 4608: return 5;
+            case 256: return 8;
+            case 512: return 9;
+            case 1024: return 10;
+            case 2048: return 11;
+            case 4096: return 12;
+            case 8192: return 13;
+            case 16384: return 14;
+            case 32768: return 15;
+            default: return count <= 256 ? 6 : 7;
+        }
+    }
+
+    private int sampleRateCode() {
+        switch (sampleRate) {
+            case 8000: return 4;
+            case 16000: return 5;
+            case 22050: return 6;
+            case 24000: return 7;
+            case 32000: return 8;
+            case 44100: return 9;
+            case 48000: return 10;
+            case 96000: return 11;
+            default: return sampleRate % 1000 == 0 && sampleRate / 1000 < 256 ? 12 : 0;
+        }
+    }
+
+    private int sampleSizeCode() {
+        switch (bitsPerSample) {
+            case 8: return 1;
+            case 12: return 2;
+            case 16: return 4;
+            case 20: return 5;
+            case 24: return 6;
+            default: return 0;
+        }
+    }
+
+    /**
+     * MSB first bit packing into a byte array.
+     */
+    private static class BitWriter {
+        private byte[] buffer;
+        private int length;
+        private long bits;
+        private int pending;
+
+        BitWriter(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void reset(byte[] target) {
+            buffer = target;
+            length = 0;
+            bits = 0;
+            pending = 0;
+        }
+
+        byte[] buffer() {
+            return buffer;
+        }
+
+        int length() {
+            return length;
+        }
+
+        void write(int value, int count) {
+            bits = (bits << count) | (value & ((1L << count) - 1));
+            pending += count;
+            while (pending >= 8) {
+                pending -= 8;
+                buffer[length++] = (byte) (bits >>> pending);
+            }
+        }
+
+        void writeSigned(int value, int count) {
+            write(value, count);
+        }
+
+        void writeRice(long folded, int k) {
+            long quotient = folded >>> k;
+            while (quotient >= 32) {
+                write(0, 32);
+                quotient -= 32;
+            }
+            write(1, (int) quotient + 1);
+            if (k > 0) {
+                write((int) (folded & ((1L << k) - 1)), k);
+            }
+        }
+
+        void alignToByte() {
+            if (pending > 0) {
+                write(0, 8 - pending);
+            }
+        }
+
+        byte[] toByteArray() {
+            byte[] copy = new byte[length];
+            System.arraycopy(buffer, 0, copy, 0, length);
+            return copy;
+        }
+    }
+
+    private static class Crc {
+        private static final int[] CRC8 = new int[256];
+        private static final int[] CRC16 = new int[256];
+
+        static {
+            for (int i = 0; i < 256; i++) {
+                int c8 = i;
+                int c16 = i << 8;
+                for (int b = 0; b < 8; b++) {
+                    c8 = (c8 & 0x80) != 0 ? (c8 << 1) ^ 0x07 : c8 << 1;
+                    c16 = (c16 & 0x8000) != 0 ? (c16 << 1) ^ 0x8005 : c16 << 1;
+                }
+                CRC8[i] = c8 & 0xFF;
+                CRC16[i] = c16 & 0xFFFF;
+            }
+        }
+
+        static int crc8(byte[] data, int from, int to) {
+            int crc = 0;
+            for (int i = from; i < to; i++) {
+                crc = CRC8[(crc ^ data[i]) & 0xFF];
+            }
+            return crc;
+        }
+
+        static int crc16(byte[] data, int from, int to) {
+            int crc = 0;
+            for (int i = from; i < to; i++) {
+                crc = ((crc << 8) ^ CRC16[((crc >> 8) ^ data[i]) & 0xFF]) & 0xFFFF;
+            }
+            return crc;
+        }
+    }
+}
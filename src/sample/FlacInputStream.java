@@ -0,0 +1,117 @@
+package sample;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads 16 bit mono PCM from another stream and hands it out FLAC encoded, one frame per block.
+ *
+ * @author naiemk
+ */
+public class FlacInputStream extends InputStream {
+    private final InputStream pcm;
+    private final boolean bigEndian;
+    private final FlacEncoder encoder;
+
+    private final byte[] block;
+    private final int[] samples;
+    private byte[] current;
+    private final byte[] frame;
+    private int position;
+    private int length;
+    private boolean ended;
+
+    private long pcmBytes;
+    private long flacBytes;
+
+    public FlacInputStream(InputStream pcm, AudioFormat format) {
+        this(pcm, format, FlacEncoder.DEFAULT_BLOCK_SIZE);
+    }
+
+    public FlacInputStream(InputStream pcm, AudioFormat format, int blockSize) {
+        if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED
+                || format.getSampleSizeInBits() != 16 || format.getChannels() != 1) {
+            throw new IllegalArgumentException("Only 16 bit signed mono PCM is encoded: " + format);
+        }
+
+        this.pcm = pcm;
+        this.bigEndian = format.isBigEndian();
+        this.encoder = new FlacEncoder((int) format.getSampleRate(), 16, blockSize);
+        this.block = new byte[blockSize * 2];
+        this.samples = new int[blockSize];
+        this.frame = new byte[encoder.maxFrameBytes()];
+
+        // The stream header goes out first.
+        this.current = encoder.streamHeader();
+        this.length = current.length;
+        this.flacBytes = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (position == length) {
+            if (ended || !encodeNextBlock()) {
+                return -1;
+            }
+        }
+
+        int n = Math.min(len, length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pcm.close();
+    }
+
+    /**
+     * Compressed size relative to the PCM read so far, headers included.
+     */
+    public double getCompressionRatio() {
+        return pcmBytes == 0 ? 1 : (double) flacBytes / pcmBytes;
+    }
+
+    private boolean encodeNextBlock() throws IOException {
+        int read = 0;
+        while (read < block.length) {
+            int n = pcm.read(block, read, block.length - read);
+            if (n < 0) {
+                ended = true;
+                break;
+            }
+            read += n;
+        }
+
+        int count = read / 2;
+        if (count == 0) {
+            return false;
+        }
+
+        for (int k = 0, i = 0; k < count; k++, i += 2) {
+            samples[k] = bigEndian
+                    ? (short) ((block[i] << 8) | (block[i + 1] & 0xff))
+                    : (short) ((block[i + 1] << 8) | (block[i] & 0xff));
+        }
+
+        current = frame;
+        position = 0;
+        length = encoder.encode(samples, count, frame);
+        pcmBytes += count * 2;
+        flacBytes += length;
+        return true;
+    }
+}
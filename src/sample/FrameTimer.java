@@ -0,0 +1,47 @@
+package sample;
+
+import javafx.animation.AnimationTimer;
+
+/**
+ * Runs a paint action on the FX thread at most once per pulse and no faster than a frame-rate
+ * cap, however often the audio side produces new pixels.
+ *
+ * @author naiemk
+ */
+public class FrameTimer extends AnimationTimer {
+    public static final String FPS_ENV = "BLUELOGUE_RENDER_FPS";
+    public static final int DEFAULT_FPS = 30;
+
+    // Pulses do not arrive exactly on time, a frame that is nearly due is drawn.
+    private static final long SLACK_NANOS = 2000000;
+
+    private static final LatencyHistogram FRAMES = Metrics.histogram("fx-frame");
+
+    private final long frameNanos;
+    private final Runnable paint;
+    private long last;
+
+    public FrameTimer(int fps, Runnable paint) {
+        this.frameNanos = 1000000000L / fps;
+        this.paint = paint;
+    }
+
+    /**
+     * A timer capped at {@value #FPS_ENV} frames per second, {@value #DEFAULT_FPS} if not set.
+     */
+    public static FrameTimer fromEnvironment(Runnable paint) {
+        String fps = System.getenv(FPS_ENV);
+        return new FrameTimer(fps == null ? DEFAULT_FPS : Integer.parseInt(fps), paint);
+    }
+
+    @Override
+    public void handle(long now) {
+        if (now - last < frameNanos - SLACK_NANOS) {
+            return;
+        }
+        last = now;
+        long started = System.nanoTime();
+        paint.run();
+        FRAMES.recordSince(started);
+    }
+}
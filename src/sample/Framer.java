@@ -0,0 +1,88 @@
+package sample;
+
+import java.util.function.Consumer;
+
+/**
+ * Cuts a stream of samples into overlapping frames: one frame of {@code frameSize} samples every
+ * {@code hopSize} samples, each with a window to apply before a transform.
+ *
+ * Samples go into a ring allocated up front. Every sample is written twice, once in each half,
+ * so a frame is always one contiguous run of the ring and is handed out as a {@link MicData} view
+ * over it without copying. The view is reused for every frame, its sequence number tells frames
+ * apart. An instance is meant to be used from one thread.
+ *
+ * @author naiemk
+ */
+public class Framer {
+    public enum Window {
+        RECTANGULAR, HANN, HAMMING;
+
+        /**
+         * The window over {@code size} samples, periodic so overlapping frames add up evenly.
+         */
+        public float[] coefficients(int size) {
+            float[] w = new float[size];
+            for (int i = 0; i < size; i++) {
+                double cos = Math.cos(2 * Math.PI * i / size);
+                w[i] = (float) (this == HANN ? 0.5 - 0.5 * cos : this == HAMMING ? 0.54 - 0.46 * cos : 1);
+            }
+            return w;
+        }
+    }
+
+    private final int frameSize;
+    private final int hopSize;
+    private final float[] window;
+    private final float[] ring;
+    private final MicData view;
+    private int position;
+    private int untilFrame;
+    private long samples;
+    private long sequence;
+
+    public Framer(int frameSize, int hopSize, Window window) {
+        if (hopSize <= 0 || hopSize > frameSize) {
+            throw new IllegalArgumentException("Hop must be between 1 and the frame size " + frameSize + ": " + hopSize);
+        }
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        this.window = window.coefficients(frameSize);
+        this.ring = new float[2 * frameSize];
+        this.untilFrame = frameSize;
+        this.view = new MicData(ring, frameSize, hopSize, this.window);
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getHopSize() {
+        return hopSize;
+    }
+
+    /**
+     * Samples pushed so far.
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * Pushes samples, calling the consumer with every frame they complete. The first frame comes
+     * once {@code frameSize} samples are in, then one every {@code hopSize} samples.
+     */
+    public void push(float[] data, int length, Consumer<MicData> frames) {
+        for (int i = 0; i < length; i++) {
+            ring[position] = data[i];
+            ring[position + frameSize] = data[i];
+            position = position + 1 == frameSize ? 0 : position + 1;
+            samples++;
+            if (--untilFrame == 0) {
+                untilFrame = hopSize;
+                // The oldest sample of the frame sits where the next one will be written.
+                view.show(position, sequence++, samples - frameSize);
+                frames.accept(view);
+            }
+        }
+    }
+}
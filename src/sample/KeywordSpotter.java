@@ -0,0 +1,297 @@
+package sample;
+
+import org.apache.commons.io.IOUtils;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Recognizer that runs entirely on this machine.
+ *
+ * Keywords are enrolled from a few recordings each, found in {@link #DEFAULT_TEMPLATES} as
+ * {@code <keyword>.wav} or {@code <keyword>-<n>.wav} (16 kHz mono). Incoming audio is turned into
+ * MFCC vectors every 10 ms and every 30 ms the most recent ones are matched against each template
+ * with subsequence DTW, so a keyword is reported a few tens of milliseconds after it is said.
+ * Templates and the frames they are matched against are both normalized by subtracting their own
+ * cepstral mean, which takes the microphone's colour out from the first word on. Only the
+ * keywords of the current dialogue are scored, templates of earlier ones stay loaded.
+ *
+ * @author naiemk
+ */
+public class KeywordSpotter implements SpeechRecognizer {
+    public static final File DEFAULT_TEMPLATES =
+            new File(System.getProperty("user.home"), ".bluelogue" + File.separator + "keywords");
+    public static final double DEFAULT_THRESHOLD = 9.0;
+
+    // c0 follows loudness, only the spectral shape is compared.
+    private static final int FIRST = 1;
+    private static final int DIMENSIONS = Mfcc.COEFFICIENTS - FIRST;
+    private static final int EVALUATE_EVERY = 3;
+    private static final int MAX_TEMPLATE = 200;
+    private static final float SILENCE_RMS = 0.01f;
+
+    private final File templateDirectory;
+    private final double threshold;
+    private final Map<String, List<float[][]>> templates = new ConcurrentHashMap<>();
+    // Replaced as a whole on every update, the spotter reads one set per evaluation.
+    private volatile Set<String> active = Collections.emptySet();
+
+    private volatile boolean stopped;
+    private volatile Future<?> spotter;
+
+    public KeywordSpotter() {
+        this(DEFAULT_TEMPLATES, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold largest average per-frame DTW distance still accepted as a match.
+     */
+    public KeywordSpotter(File templateDirectory, double threshold) {
+        this.templateDirectory = templateDirectory;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Adds a recording of the keyword, in {@link Recorder#AUDIO_FORMAT} samples, as a template.
+     */
+    public void enroll(String keyword, float[] samples, int length) {
+        float[][] features = normalize(Mfcc.of(samples, length));
+        if (features.length == 0 || features.length > MAX_TEMPLATE) {
+            System.out.println("Ignoring template of " + features.length + " frames for " + keyword);
+            return;
+        }
+        templates.computeIfAbsent(keyword, k -> Collections.synchronizedList(new ArrayList<>())).add(features);
+    }
+
+    @Override
+    public void start(InputStream audio, Collection<String> keywords, Consumer<Recognition> listener) {
+        updateKeywords(keywords);
+        spotter = Lane.DSP.submit(() -> spot(audio, listener));
+    }
+
+    /**
+     * Loads the templates of keywords not seen before. From its next frame the spotter looks for
+     * these keywords and no others.
+     */
+    @Override
+    public void updateKeywords(Collection<String> keywords) {
+        Set<String> next = new LinkedHashSet<>(keywords);
+        for (String keyword : next) {
+            if (!templates.containsKey(keyword)) {
+                loadTemplates(keyword);
+            }
+            if (!templates.containsKey(keyword)) {
+                System.out.println("No template for keyword \"" + keyword + "\" in " + templateDirectory);
+            }
+        }
+        active = Collections.unmodifiableSet(next);
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        Future<?> current = spotter;
+        if (current != null) {
+            current.cancel(true);
+        }
+    }
+
+    private void spot(InputStream audio, Consumer<Recognition> listener) {
+        byte[] bytes = new byte[Mfcc.HOP * Recorder.AUDIO_FORMAT.getFrameSize()];
+        float[] samples = new float[Mfcc.HOP];
+        long[] transfer = new long[Mfcc.HOP];
+        float[] coefficients = new float[Mfcc.COEFFICIENTS];
+
+        int window = 2 * MAX_TEMPLATE;
+        float[][] recent = new float[window][DIMENSIONS];
+        long frames = 0;
+        long quietUntil = 0;
+        long lastVoiced = -1;
+        int utterance = 0;
+        Mfcc mfcc = new Mfcc();
+        Matcher matcher = new Matcher();
+
+        try {
+            while (!stopped && readFully(audio, bytes)) {
+                Recorder.unpack(bytes, transfer, samples, bytes.length, Recorder.AUDIO_FORMAT);
+                double energy = 0;
+                boolean ready = false;
+                for (float s : samples) {
+                    energy += s * s;
+                    ready |= mfcc.push(s, coefficients);
+                }
+                if (!ready) {
+                    continue;
+                }
+
+                System.arraycopy(coefficients, FIRST, recent[(int) (frames % window)], 0, DIMENSIONS);
+                if (Math.sqrt(energy / samples.length) > SILENCE_RMS) {
+                    lastVoiced = frames;
+                }
+                frames++;
+
+                // Only look for a keyword that could have ended in the last step and was not silence.
+                if (frames % EVALUATE_EVERY != 0 || frames < quietUntil || frames - lastVoiced > EVALUATE_EVERY) {
+                    continue;
+                }
+
+                String best = null;
+                double bestCost = threshold;
+                int bestLength = 0;
+                for (String keyword : active) {
+                    List<float[][]> candidates = templates.get(keyword);
+                    if (candidates == null) {
+                        continue;
+                    }
+                    synchronized (candidates) {
+                        for (float[][] template : candidates) {
+                            double cost = matcher.cost(template, recent, frames, window);
+                            if (cost < bestCost) {
+                                bestCost = cost;
+                                best = keyword;
+                                bestLength = template.length;
+                            }
+                        }
+                    }
+                }
+
+                if (best != null) {
+                    quietUntil = frames + bestLength;
+                    double confidence = 1 - bestCost / threshold;
+                    listener.accept(new Recognition(utterance++, best, true,
+                            Collections.singletonMap(best, confidence)));
+                }
+            }
+        } catch (IOException e) {
+            if (!stopped) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void loadTemplates(String keyword) {
+        File[] files = templateDirectory.listFiles((dir, name) ->
+                name.equalsIgnoreCase(keyword + ".wav")
+                        || name.toLowerCase().startsWith(keyword.toLowerCase() + "-") && name.endsWith(".wav"));
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            try (AudioInputStream in = AudioSystem.getAudioInputStream(file);
+                 AudioInputStream audio = AudioSystem.getAudioInputStream(Recorder.AUDIO_FORMAT, in)) {
+                // The frame length is -1 when the converter cannot tell, read to the end instead.
+                byte[] bytes = IOUtils.toByteArray(audio);
+                int length = bytes.length - bytes.length % Recorder.AUDIO_FORMAT.getFrameSize();
+                float[] samples = new float[length / Recorder.AUDIO_FORMAT.getFrameSize()];
+                Recorder.unpack(bytes, new long[samples.length], samples, length, Recorder.AUDIO_FORMAT);
+                enroll(keyword, samples, samples.length);
+            } catch (IOException | UnsupportedAudioFileException | IllegalArgumentException e) {
+                System.out.println("Cannot read keyword template " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static float[][] normalize(float[][] features) {
+        float[][] normalized = new float[features.length][DIMENSIONS];
+        for (int d = 0; d < DIMENSIONS; d++) {
+            float mean = 0;
+            for (float[] f : features) {
+                mean += f[FIRST + d];
+            }
+            mean /= Math.max(1, features.length);
+            for (int i = 0; i < features.length; i++) {
+                normalized[i][d] = features[i][FIRST + d] - mean;
+            }
+        }
+        return normalized;
+    }
+
+    private static boolean readFully(InputStream in, byte[] bytes) throws IOException {
+        int read = 0;
+        while (read < bytes.length) {
+            int n = in.read(bytes, read, bytes.length - read);
+            if (n < 0) {
+                return false;
+            }
+            read += n;
+        }
+        return true;
+    }
+
+    /**
+     * Subsequence DTW: the template may start anywhere in the recent frames but has to end
+     * within the last evaluation step. The frames compared are normalized by their own mean like
+     * the template was. Columns are computed in place, nothing is allocated.
+     */
+    private static class Matcher {
+        private final double[] previous = new double[MAX_TEMPLATE];
+        private final double[] current = new double[MAX_TEMPLATE];
+        private final float[] mean = new float[DIMENSIONS];
+
+        double cost(float[][] template, float[][] recent, long frames, int window) {
+            int rows = template.length;
+            int columns = (int) Math.min(frames, Math.min(window, 2L * rows));
+            double best = Double.MAX_VALUE;
+            double[] prev = previous;
+            double[] cur = current;
+
+            Arrays.fill(mean, 0);
+            for (int j = 0; j < columns; j++) {
+                float[] frame = recent[(int) ((frames - columns + j) % window)];
+                for (int d = 0; d < DIMENSIONS; d++) {
+                    mean[d] += frame[d] / columns;
+                }
+            }
+
+            for (int j = 0; j < columns; j++) {
+                float[] frame = recent[(int) ((frames - columns + j) % window)];
+                for (int i = 0; i < rows; i++) {
+                    double d = distance(template[i], frame, mean);
+                    if (i == 0) {
+                        cur[i] = d;
+                    } else if (j == 0) {
+                        cur[i] = d + cur[i - 1];
+                    } else {
+                        cur[i] = d + Math.min(cur[i - 1], Math.min(prev[i], prev[i - 1]));
+                    }
+                }
+                if (j >= columns - EVALUATE_EVERY) {
+                    best = Math.min(best, cur[rows - 1] / rows);
+                }
+                double[] swap = prev;
+                prev = cur;
+                cur = swap;
+            }
+
+            return best;
+        }
+
+        /**
+         * Distance between a template frame and a recent frame less {@code mean}.
+         */
+        private static double distance(float[] a, float[] b, float[] mean) {
+            double sum = 0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                float diff = a[d] - (b[d] - mean[d]);
+                sum += diff * diff;
+            }
+            return Math.sqrt(sum);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package sample;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * A pool of threads for one kind of work, measured so a stage that falls behind shows up.
+ *
+ * Work is split by how it behaves rather than sharing one pool: audio capture has its own thread
+ * in {@link AudioBus}, DSP loops run on {@link #DSP}, anything waiting on the network on
+ * {@link #IO}, and replies play on the bounded {@link #PLAYBACK} lane. No lane can take threads
+ * from another, so a burst of replies or slow network calls cannot starve the audio. Only IO grows
+ * with demand; DSP and playback have a ceiling.
+ *
+ * @author naiemk
+ */
+public class Lane implements Executor {
+    public static final String DSP_THREADS_ENV = "BLUELOGUE_DSP_THREADS";
+    public static final String PLAYBACK_THREADS_ENV = "BLUELOGUE_PLAYBACK_THREADS";
+    private static final int DEFAULT_DSP_THREADS = 256;
+    private static final int DEFAULT_PLAYBACK_THREADS = 64;
+    private static final int PLAYBACK_QUEUE = 1024;
+
+    private static final List<Lane> lanes = new CopyOnWriteArrayList<>();
+
+    /**
+     * Long running loops over audio frames: the visualizer, the local keyword spotter, session
+     * recording and replays. A loop holds its thread until its audio ends, so a queued one might
+     * never start; past the limit they are rejected instead.
+     */
+    public static final Lane DSP = new Lane("dsp", threads(DSP_THREADS_ENV, DEFAULT_DSP_THREADS), 0, Thread.NORM_PRIORITY + 1);
+
+    /**
+     * Blocking network calls: synthesis, warm-up and session setup. Threads come and go with demand.
+     */
+    public static final Lane IO = new Lane("io", Integer.MAX_VALUE, 0, Thread.NORM_PRIORITY);
+
+    /**
+     * Replies being played. A reply holds a thread for as long as it plays, past the limit they queue.
+     */
+    public static final Lane PLAYBACK = new Lane("playback", threads(PLAYBACK_THREADS_ENV, DEFAULT_PLAYBACK_THREADS),
+            PLAYBACK_QUEUE, Thread.NORM_PRIORITY + 2);
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    /**
+     * @param threads most threads running at once, idle ones go away after a minute.
+     * @param queue   tasks waiting for a thread before new ones are rejected, 0 to hand over directly.
+     */
+    public Lane(String name, int threads, int queue, int priority) {
+        this.name = name;
+        BlockingQueue<Runnable> waiting = queue == 0 ? new SynchronousQueue<>() : new LinkedBlockingQueue<>(queue);
+        AtomicInteger ids = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(queue == 0 ? 0 : threads, threads, 60, TimeUnit.SECONDS, waiting, r -> {
+            Thread t = new Thread(r, name + "-" + ids.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(priority);
+            return t;
+        }, (r, e) -> {
+            rejected.increment();
+            throw new RejectedExecutionException("The " + name + " lane is full.");
+        });
+        executor.allowCoreThreadTimeOut(true);
+        lanes.add(this);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        executor.execute(measured(task));
+        maxQueueDepth.accumulateAndGet(executor.getQueue().size(), Math::max);
+    }
+
+    /**
+     * Runs the task, cancelling the future interrupts it.
+     */
+    public Future<?> submit(Runnable task) {
+        Future<?> future = executor.submit(measured(task));
+        maxQueueDepth.accumulateAndGet(executor.getQueue().size(), Math::max);
+        return future;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Time tasks spent queued before a thread picked them up.
+     */
+    public double getMeanWaitMillis() {
+        long n = completed.sum();
+        return n == 0 ? 0 : waitNanos.sum() / 1e6 / n;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    public double getMeanRunMillis() {
+        long n = completed.sum();
+        return n == 0 ? 0 : runNanos.sum() / 1e6 / n;
+    }
+
+    public String report() {
+        return String.format("%s: %d active, queue %d (max %d), %d done, %d rejected, wait mean %.2f ms max %.2f ms, run mean %.1f ms",
+                name, getActive(), getQueueDepth(), getMaxQueueDepth(), getCompleted(), getRejected(),
+                getMeanWaitMillis(), getMaxWaitMillis(), getMeanRunMillis());
+    }
+
+    public void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * One line per lane created so far.
+     */
+    public static String reportAll() {
+        return lanes.stream().map(Lane::report).collect(Collectors.joining("\n"));
+    }
+
+    public static void shutdownAll() {
+        lanes.forEach(Lane::shutdownNow);
+    }
+
+    private Runnable measured(Runnable task) {
+        long queued = System.nanoTime();
+        return () -> {
+            long started = System.nanoTime();
+            waitNanos.add(started - queued);
+            maxWaitNanos.accumulateAndGet(started - queued, Math::max);
+            try {
+                task.run();
+            } finally {
+                runNanos.add(System.nanoTime() - started);
+                completed.increment();
+            }
+        };
+    }
+
+    private static int threads(String env, int defaultThreads) {
+        String threads = System.getenv(env);
+        return threads == null ? defaultThreads : Integer.parseInt(threads);
+    }
+}
@@ -0,0 +1,131 @@
+package sample;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies in log-linear buckets, the way HdrHistogram does.
+ *
+ * Every power of two is split into {@value #HALF} buckets, so any recorded value is known to
+ * within about 3% from 1 ns up to hundreds of years. Recording is a couple of shifts and an atomic
+ * increment without locks or allocation, cheap enough for every audio frame.
+ *
+ * @author naiemk
+ */
+public class LatencyHistogram implements LatencyHistogramMXBean {
+    private static final int SUB_BITS = 6;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS + 2) * HALF);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void recordNanos(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(indexOf(value));
+        count.increment();
+        total.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * Records the time passed since {@code startNanos}, a {@link System#nanoTime()} reading.
+     */
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : total.sum() / 1e6 / n;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return percentileNanos(50) / 1e6;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return percentileNanos(90) / 1e6;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return percentileNanos(99) / 1e6;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return percentileNanos(99.9) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return max.get() / 1e6;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+
+    /**
+     * The value at the percentile, as the top of its bucket but never above the largest value seen.
+     */
+    public long percentileNanos(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(highestIn(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public String summary() {
+        return String.format("%s: %d, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+                name, getCount(), getP50Millis(), getP90Millis(), getP99Millis(), getMaxMillis());
+    }
+
+    static int indexOf(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1));
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    static long highestIn(int index) {
+        int shift = Math.max(0, index / HALF - 1);
+        long mantissa = index - (long) shift * HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,24 @@
+package sample;
+
+/**
+ * A latency histogram as seen over JMX, times in milliseconds.
+ *
+ * @author naiemk
+ */
+public interface LatencyHistogramMXBean {
+    long getCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+
+    void reset();
+}
@@ -0,0 +1,225 @@
+package sample;
+
+import com.ibm.watson.developer_cloud.speech_to_text.v1.SpeechToText;
+import com.ibm.watson.developer_cloud.text_to_speech.v1.TextToSpeech;
+import com.ibm.watson.developer_cloud.text_to_speech.v1.model.Voice;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Finds how many simultaneous dialogues one node can hold.
+ *
+ * Runs rounds of 1, 2, 4, ... sessions at once against a {@link WatsonStandIn}, every session
+ * listening to the same recording in real time and playing its replies into a paced sink like
+ * {@link DialogueServer} does. Every reply is synthesized, nothing is cached. Per round it reports
+ * sessions per second, reply latency percentiles, peak heap and peak threads.
+ *
+ * Usage: {@code LoadGenerator <session.bls | audio.wav> <dialogue file> [max sessions] [loops]},
+ * where loops plays the recording that many times in each session for a soak run. Service latency
+ * and jitter come from {@value WatsonStandIn#LATENCY_ENV} and {@value WatsonStandIn#JITTER_ENV}.
+ *
+ * @author naiemk
+ */
+public class LoadGenerator {
+    private static final int DEFAULT_MAX_SESSIONS = 64;
+    private static final long SAMPLE_MILLIS = 100;
+
+    private final byte[] recording;
+    private final int loops;
+    private final String dialog;
+    private final SpeechToText speechToText;
+    private final TextToSpeech textToSpeech;
+    private final WatsonStandIn standIn;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "load-sampler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public LoadGenerator(byte[] recording, int loops, String dialog, WatsonStandIn standIn) {
+        this.recording = recording;
+        this.loops = loops;
+        this.dialog = dialog;
+        this.standIn = standIn;
+        this.speechToText = standIn.speechToText();
+        this.textToSpeech = standIn.textToSpeech();
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: LoadGenerator <session.bls | audio.wav> <dialogue file> [max sessions] [loops]");
+            System.exit(2);
+        }
+        byte[] recording = readRecording(new File(args[0]));
+        String dialog = new String(Files.readAllBytes(new File(args[1]).toPath()), StandardCharsets.UTF_8);
+        int maxSessions = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_SESSIONS;
+        int loops = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+
+        try (WatsonStandIn standIn = WatsonStandIn.fromEnvironment().start()) {
+            LoadGenerator load = new LoadGenerator(recording, loops, dialog, standIn);
+            List<String> rounds = new ArrayList<>();
+            for (int sessions = 1; sessions <= maxSessions; sessions *= 2) {
+                String round = load.round(sessions);
+                System.out.println(round);
+                rounds.add(round);
+            }
+
+            System.out.println(String.format("Recording %.1f s x %d, stand-in latency %d ms + up to %d ms jitter",
+                    recording.length / (double) Recorder.AUDIO_FORMAT.getFrameSize() / Recorder.AUDIO_FORMAT.getFrameRate(),
+                    loops, standIn.getLatencyMillis(), standIn.getJitterMillis()));
+            rounds.forEach(System.out::println);
+            System.out.println(Lane.reportAll());
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Runs that many sessions at once until the recording ends in all of them.
+     *
+     * @return one line of results.
+     */
+    public String round(int sessions) throws InterruptedException {
+        Metrics.PLAYBACK_START.reset();
+        System.gc();
+        long baseHeap = memory.getHeapMemoryUsage().getUsed();
+        AtomicLong peakHeap = new AtomicLong(baseHeap);
+        AtomicInteger peakThreads = new AtomicInteger(threads.getThreadCount());
+        AtomicInteger peakStandInThreads = new AtomicInteger(standIn.getThreads());
+        ScheduledFuture<?> sampling = sampler.scheduleAtFixedRate(() -> {
+            peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+            peakThreads.accumulateAndGet(threads.getThreadCount(), Math::max);
+            peakStandInThreads.accumulateAndGet(standIn.getThreads(), Math::max);
+        }, 0, SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+        long reconnects = Metrics.RECOGNITION_RECONNECTS.sum();
+
+        long started = System.nanoTime();
+        List<DialogueService> services = new ArrayList<>();
+        List<CompletableFuture<Void>> done = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            DialogueService service = new DialogueService(dialog, new WatsonRecognizer(speechToText),
+                    this::synthesize, new StreamSink(NullOutputStream.NULL_OUTPUT_STREAM));
+            service.useEventLog(EventLog.off());
+            CancellationToken cancellation = new CancellationToken(false);
+            AudioBus bus = new AudioBus(new Paced(recording, loops), Recorder.AUDIO_FORMAT, AudioBus.FRAME_BYTES, AudioBus.SLOTS)
+                    .onEnd(cancellation::cancel);
+            services.add(service);
+            done.add(service.start(bus, cancellation).whenComplete((v, e) -> bus.close()));
+            bus.start();
+        }
+        int failed = 0;
+        for (CompletableFuture<Void> session : done) {
+            try {
+                session.join();
+            } catch (RuntimeException e) {
+                failed++;
+            }
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+        sampling.cancel(false);
+
+        long replies = services.stream().mapToLong(s -> s.getPlayback().getPlayed()).sum();
+        LatencyHistogram latency = Metrics.PLAYBACK_START;
+        long heap = peakHeap.get() - baseHeap;
+        return String.format("%4d sessions: %6.2f sessions/s, %5d replies, latency p50 %4.0f p90 %4.0f p99 %4.0f max %4.0f ms, "
+                        + "heap +%.1f MB (%.0f KB per session), threads %d (%d stand-in), %d failed, %d reconnects",
+                sessions, sessions / seconds, replies, latency.getP50Millis(), latency.getP90Millis(),
+                latency.getP99Millis(), latency.getMaxMillis(), heap / 1048576.0, heap / 1024.0 / sessions,
+                peakThreads.get(), peakStandInThreads.get(), failed, Metrics.RECOGNITION_RECONNECTS.sum() - reconnects);
+    }
+
+    private AudioInputStream synthesize(String text) {
+        try {
+            InputStream wave = textToSpeech.synthesize(text, Voice.EN_LISA,
+                    com.ibm.watson.developer_cloud.text_to_speech.v1.model.AudioFormat.WAV).execute();
+            return AudioSystem.getAudioInputStream(new BufferedInputStream(wave));
+        } catch (Exception e) {
+            throw new RuntimeException("Error synthesizing reply: " + text, e);
+        }
+    }
+
+    private static byte[] readRecording(File file) throws Exception {
+        if (file.getName().endsWith(".wav")) {
+            try (InputStream wave = SessionReplay.wave(file)) {
+                return IOUtils.toByteArray(wave);
+            }
+        }
+        SessionReader session = new SessionReader(file);
+        if (!session.getFormat().matches(Recorder.AUDIO_FORMAT)) {
+            throw new IOException(file + " must be " + Recorder.AUDIO_FORMAT + ", it is " + session.getFormat());
+        }
+        return IOUtils.toByteArray(session.audio());
+    }
+
+    /**
+     * The recording, looped, at the pace a microphone would deliver it.
+     */
+    private static class Paced extends InputStream {
+        private final byte[] pcm;
+        private final long total;
+        private final double bytesPerNano;
+        private long position;
+        private long started;
+
+        Paced(byte[] pcm, int loops) {
+            this.pcm = pcm;
+            this.total = (long) pcm.length * loops;
+            this.bytesPerNano = Recorder.AUDIO_FORMAT.getFrameRate() * Recorder.AUDIO_FORMAT.getFrameSize() / 1e9;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= total) {
+                return -1;
+            }
+            if (started == 0) {
+                started = System.nanoTime();
+            }
+            long due = started + (long) ((position + len) / bytesPerNano);
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while pacing audio.", e);
+                }
+            }
+            int offset = (int) (position % pcm.length);
+            int n = (int) Math.min(len, Math.min(pcm.length - offset, total - position));
+            System.arraycopy(pcm, offset, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+}
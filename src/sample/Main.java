@@ -13,10 +13,15 @@ public class Main extends Application {
 
     @Override
     public void start(Stage primaryStage) throws Exception{
-        if (Stream.of(DialogueService.BLUE_MIX_STT_UN,
+        // The local keyword spotter does not need the speech to text service.
+        Stream<String> required = SpeechRecognizer.isLocal()
+                ? Stream.of(DialogueService.BLUE_MIX_TTS_UN,
+                        DialogueService.BLUE_MIX_TTS_PW)
+                : Stream.of(DialogueService.BLUE_MIX_STT_UN,
                         DialogueService.BLUE_MIX_STT_PW,
                         DialogueService.BLUE_MIX_TTS_UN,
-                        DialogueService.BLUE_MIX_TTS_PW)
+                        DialogueService.BLUE_MIX_TTS_PW);
+        if (required
                 .filter(Main::validateEnv)
                 .count() > 0) {
             throw new RuntimeException("Some environment variable is not defined.");
@@ -31,7 +36,7 @@ public class Main extends Application {
     @Override
     public void stop() throws Exception {
         System.out.println("Shutting Down.");
-        Controller.worker.shutdownNow();
+        Lane.shutdownAll();
         Platform.exit();
         super.stop();
         System.exit(0);
@@ -0,0 +1,126 @@
+package sample;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and counters for each stage between a spoken keyword and the reply.
+ *
+ * Histograms are registered over JMX as {@code sample:type=Latency,name=<stage>}, the counters as
+ * {@code sample:type=Pipeline}. {@link #startReporting()} also logs a summary periodically.
+ *
+ * @author naiemk
+ */
+public class Metrics {
+    public static final String REPORT_SECONDS_ENV = "BLUELOGUE_METRICS_SECONDS";
+    private static final int DEFAULT_REPORT_SECONDS = 30;
+
+    /** From a microphone frame being captured to the visualizer reading it. */
+    public static final LatencyHistogram CAPTURE = histogram("capture");
+    /** From a speech frame being captured to handing it to the recognizer. */
+    public static final LatencyHistogram UPLINK = histogram("uplink");
+    /** From the last audio sent to a transcription arriving. */
+    public static final LatencyHistogram RECOGNITION = histogram("recognition");
+    /** Matching and arbitrating keywords for one hypothesis. */
+    public static final LatencyHistogram DECISION = histogram("decision");
+    /** From asking for a reply's audio to its first bytes. */
+    public static final LatencyHistogram TTS_FIRST_BYTE = histogram("tts-first-byte");
+    /** From queueing a reply to its first audio going out. */
+    public static final LatencyHistogram PLAYBACK_START = histogram("playback-start");
+
+    public static final LongAdder CAPTURE_OVERRUNS = counter("capture-overruns");
+    public static final LongAdder RECOGNITION_RECONNECTS = counter("recognition-reconnects");
+    public static final LongAdder REPLIES_DROPPED = counter("replies-dropped");
+
+    // Filled in lazily, the stage fields above are initialized before these would be.
+    private static Map<String, LatencyHistogram> histograms;
+    private static Map<String, LongAdder> counters;
+    private static ScheduledExecutorService reporter;
+
+    private Metrics() {
+    }
+
+    public static synchronized LatencyHistogram histogram(String name) {
+        if (histograms == null) {
+            histograms = new ConcurrentHashMap<>();
+        }
+        return histograms.computeIfAbsent(name, n -> {
+            LatencyHistogram histogram = new LatencyHistogram(n);
+            register("sample:type=Latency,name=" + n, histogram, LatencyHistogramMXBean.class);
+            return histogram;
+        });
+    }
+
+    public static synchronized LongAdder counter(String name) {
+        if (counters == null) {
+            counters = new ConcurrentHashMap<>();
+            register("sample:type=Pipeline", new PipelineMetricsMXBean() {
+                @Override
+                public Map<String, Long> getCounters() {
+                    Map<String, Long> values = new TreeMap<>();
+                    counters.forEach((n, c) -> values.put(n, c.sum()));
+                    return values;
+                }
+
+                @Override
+                public String getSummary() {
+                    return summary();
+                }
+            }, PipelineMetricsMXBean.class);
+        }
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * One line per stage that saw anything, then the counters.
+     */
+    public static String summary() {
+        StringBuilder summary = new StringBuilder("Latency:");
+        new TreeMap<>(histograms).values().stream()
+                .filter(h -> h.getCount() > 0)
+                .forEach(h -> summary.append("\n  ").append(h.summary()));
+        summary.append("\n  ");
+        new TreeMap<>(counters).forEach((n, c) -> summary.append(n).append(' ').append(c.sum()).append(", "));
+        summary.setLength(summary.length() - 2);
+        return summary.toString();
+    }
+
+    /**
+     * Logs the summary every {@value #REPORT_SECONDS_ENV} seconds, 30 unless set.
+     */
+    public static synchronized void startReporting() {
+        if (reporter != null) {
+            return;
+        }
+        String seconds = System.getenv(REPORT_SECONDS_ENV);
+        int period = seconds == null ? DEFAULT_REPORT_SECONDS : Integer.parseInt(seconds);
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-report");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> System.out.println(summary()), period, period, TimeUnit.SECONDS);
+    }
+
+    private static <T> void register(String name, T bean, Class<T> type) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new StandardMBean(bean, type, true), objectName);
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+}
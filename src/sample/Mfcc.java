@@ -0,0 +1,132 @@
+package sample;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+/**
+ * Mel frequency cepstral coefficients of 16 kHz audio, one vector per 10 ms hop over a 25 ms
+ * Hamming window. Samples are pushed in as they come, buffers are allocated once.
+ *
+ * @author naiemk
+ */
+public class Mfcc {
+    public static final int SAMPLE_RATE = 16000;
+    public static final int FRAME = 400;
+    public static final int HOP = 160;
+    public static final int COEFFICIENTS = 13;
+    private static final int FFT_SIZE = 512;
+    private static final int FILTERS = 26;
+
+    private final FloatFFT_1D fft = Stft.plan(FFT_SIZE);
+    private final float[] window = new float[FRAME];
+    private final float[][] filterBank = new float[FILTERS][FFT_SIZE / 2 + 1];
+    private final float[][] dct = new float[COEFFICIENTS][FILTERS];
+
+    private final float[] history = new float[FRAME];
+    private final float[] spectrum = new float[FFT_SIZE];
+    private final float[] energies = new float[FILTERS];
+    private int position;
+    private int filled;
+    private int sinceLast;
+
+    public Mfcc() {
+        for (int i = 0; i < FRAME; i++) {
+            window[i] = (float) (0.54 - 0.46 * Math.cos(2 * Math.PI * i / (FRAME - 1)));
+        }
+
+        // Triangular filters spaced evenly on the mel scale.
+        double maxMel = mel(SAMPLE_RATE / 2.0);
+        double[] edges = new double[FILTERS + 2];
+        for (int m = 0; m < edges.length; m++) {
+            edges[m] = hz(maxMel * m / (FILTERS + 1)) * FFT_SIZE / SAMPLE_RATE;
+        }
+        for (int m = 0; m < FILTERS; m++) {
+            for (int k = 0; k <= FFT_SIZE / 2; k++) {
+                double rise = (k - edges[m]) / (edges[m + 1] - edges[m]);
+                double fall = (edges[m + 2] - k) / (edges[m + 2] - edges[m + 1]);
+                filterBank[m][k] = (float) Math.max(0, Math.min(rise, fall));
+            }
+        }
+
+        // Orthonormal DCT-II, so coefficients keep the same scale whatever the filter count.
+        for (int c = 0; c < COEFFICIENTS; c++) {
+            double norm = Math.sqrt((c == 0 ? 1.0 : 2.0) / FILTERS);
+            for (int m = 0; m < FILTERS; m++) {
+                dct[c][m] = (float) (norm * Math.cos(Math.PI * c * (m + 0.5) / FILTERS));
+            }
+        }
+    }
+
+    /**
+     * Feeds one sample, writing a new coefficient vector into {@code out} every {@link #HOP} samples.
+     *
+     * @return true when {@code out} has been filled.
+     */
+    public boolean push(float sample, float[] out) {
+        history[position] = sample;
+        position = (position + 1) % FRAME;
+        filled = Math.min(FRAME, filled + 1);
+        if (++sinceLast < HOP || filled < FRAME) {
+            return false;
+        }
+
+        sinceLast = 0;
+        compute(out);
+        return true;
+    }
+
+    /**
+     * Coefficients of every full frame in a recording.
+     */
+    public static float[][] of(float[] samples, int length) {
+        Mfcc mfcc = new Mfcc();
+        int frames = Math.max(0, (length - FRAME) / HOP + 1);
+        float[][] features = new float[frames][COEFFICIENTS];
+        int f = 0;
+        for (int i = 0; i < length && f < frames; i++) {
+            if (mfcc.push(samples[i], features[f])) {
+                f++;
+            }
+        }
+        return features;
+    }
+
+    private void compute(float[] out) {
+        // The oldest sample sits at the write position of the history ring.
+        for (int i = 0, j = position; i < FRAME; i++, j = j + 1 == FRAME ? 0 : j + 1) {
+            spectrum[i] = history[j] * window[i];
+        }
+        for (int i = FRAME; i < FFT_SIZE; i++) {
+            spectrum[i] = 0;
+        }
+        fft.realForward(spectrum);
+
+        for (int m = 0; m < FILTERS; m++) {
+            float[] filter = filterBank[m];
+            // realForward packs Re[0] and Re[n/2] into the first two slots.
+            double e = filter[0] * spectrum[0] * spectrum[0]
+                    + filter[FFT_SIZE / 2] * spectrum[1] * spectrum[1];
+            for (int k = 1; k < FFT_SIZE / 2; k++) {
+                float re = spectrum[2 * k];
+                float im = spectrum[2 * k + 1];
+                e += filter[k] * (re * re + im * im);
+            }
+            energies[m] = (float) Math.log(e + 1e-10);
+        }
+
+        for (int c = 0; c < COEFFICIENTS; c++) {
+            float sum = 0;
+            for (int m = 0; m < FILTERS; m++) {
+                sum += dct[c][m] * energies[m];
+            }
+            out[c] = sum;
+        }
+    }
+
+    private static double mel(double hz) {
+        return 2595 * Math.log10(1 + hz / 700);
+    }
+
+    private static double hz(double mel) {
+        return 700 * (Math.pow(10, mel / 2595) - 1);
+    }
+}
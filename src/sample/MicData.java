@@ -2,16 +2,86 @@ package sample;
 
 /**
  * Created by yeganehn on 9/29/16.
+ *
+ * A read-only view of one frame from a {@link Framer}. The samples stay in the framer's ring and
+ * the view is reused for the next frame, so it is only valid until the consumer returns: copy out
+ * what you keep, and compare {@link #getSequence()} to tell frames apart.
  */
 public class MicData {
-    private float[] samples;
-    public static MicData from(float[] b) {
-        MicData m = new MicData();
-        m.samples = b;
-        return m;
+    private final float[] ring;
+    private final int size;
+    private final int hop;
+    private final float[] window;
+    private int offset;
+    private long sequence;
+    private long firstSample;
+
+    MicData(float[] ring, int size, int hop, float[] window) {
+        this.ring = ring;
+        this.size = size;
+        this.hop = hop;
+        this.window = window;
+    }
+
+    void show(int offset, long sequence, long firstSample) {
+        this.offset = offset;
+        this.sequence = sequence;
+        this.firstSample = firstSample;
+    }
+
+    /**
+     * Frames before this one, counted from the start of capture.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Samples before the first one of this frame.
+     */
+    public long getFirstSample() {
+        return firstSample;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Samples at the end of the frame that the previous frame did not have, all of them for the first.
+     */
+    public int getNewSamples() {
+        return sequence == 0 ? size : hop;
+    }
+
+    public float get(int i) {
+        return ring[offset + i];
+    }
+
+    /**
+     * Copies the frame into {@code out}.
+     */
+    public void copyTo(float[] out) {
+        System.arraycopy(ring, offset, out, 0, size);
+    }
+
+    /**
+     * Copies the frame into {@code out} multiplied by the framer's window.
+     */
+    public void windowTo(float[] out) {
+        for (int i = 0; i < size; i++) {
+            out[i] = ring[offset + i] * window[i];
+        }
     }
 
-    public float[] getSamples() {
-        return samples;
+    /**
+     * Copies the {@link #getNewSamples()} newest samples into {@code out}.
+     *
+     * @return how many.
+     */
+    public int copyNewTo(float[] out) {
+        int n = getNewSamples();
+        System.arraycopy(ring, offset + size - n, out, 0, n);
+        return n;
     }
 }
@@ -0,0 +1,42 @@
+package sample;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Takes replies as fast as they come and throws them away, for replays that run faster than real time.
+ *
+ * @author naiemk
+ */
+public class NullSink implements AudioSink {
+    private volatile long bytes;
+
+    @Override
+    public void open(AudioFormat format) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        bytes += len;
+    }
+
+    @Override
+    public void drain() {
+    }
+
+    @Override
+    public void discard() {
+    }
+
+    @Override
+    public boolean isActive() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+}
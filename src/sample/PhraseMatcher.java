@@ -0,0 +1,327 @@
+package sample;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Finds dialogue phrases in transcripts.
+ *
+ * Phrases are compiled into an Aho-Corasick automaton over normalized word tokens: lower case,
+ * punctuation dropped and common inflections stemmed, so "kitchens" finds "kitchen" and
+ * "the red doors" finds "red door". Optionally a transcript word within a small edit distance
+ * of a phrase word counts as that word. A {@link Scanner} follows one utterance as its interim
+ * transcripts come in and only rescans the words that changed.
+ *
+ * @author naiemk
+ */
+public class PhraseMatcher {
+    private static final int ROOT = 0;
+    private static final int MIN_FUZZY_LENGTH = 4;
+
+    private final List<String> phrases = new ArrayList<>();
+    private final int[] phraseLengths;
+    private final int maxEdits;
+
+    // Word to token id, and token ids grouped by word length for fuzzy lookups.
+    private final Map<String, Integer> vocabulary = new HashMap<>();
+    private final Map<Integer, List<String>> wordsByLength = new HashMap<>();
+
+    // The automaton: goto edges, failure links and the phrases ending in each node.
+    private final List<Map<Integer, Integer>> edges = new ArrayList<>();
+    private int[] failure;
+    private int[][] outputs;
+
+    public PhraseMatcher(Collection<String> phrases, int maxEdits) {
+        this.maxEdits = maxEdits;
+        this.phraseLengths = new int[phrases.size()];
+        edges.add(new HashMap<>());
+
+        List<List<Integer>> ends = new ArrayList<>();
+        ends.add(new ArrayList<>());
+        for (String phrase : phrases) {
+            List<String> words = tokenize(phrase);
+            if (words.isEmpty()) {
+                continue;
+            }
+
+            int node = ROOT;
+            for (String word : words) {
+                int token = vocabulary.computeIfAbsent(word, w -> {
+                    wordsByLength.computeIfAbsent(w.length(), l -> new ArrayList<>()).add(w);
+                    return vocabulary.size();
+                });
+                Integer next = edges.get(node).get(token);
+                if (next == null) {
+                    next = edges.size();
+                    edges.add(new HashMap<>());
+                    ends.add(new ArrayList<>());
+                    edges.get(node).put(token, next);
+                }
+                node = next;
+            }
+            phraseLengths[this.phrases.size()] = words.size();
+            ends.get(node).add(this.phrases.size());
+            this.phrases.add(phrase);
+        }
+
+        link(ends);
+    }
+
+    /**
+     * Lower case words with punctuation, recognizer hesitation markers and inflections removed.
+     */
+    public static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        for (String raw : text.toLowerCase().split("\\s+")) {
+            if (raw.startsWith("%")) {
+                continue;
+            }
+            StringBuilder word = new StringBuilder(raw.length());
+            for (int i = 0; i < raw.length(); i++) {
+                char c = raw.charAt(i);
+                if (Character.isLetterOrDigit(c)) {
+                    word.append(c);
+                }
+            }
+            if (word.length() > 0) {
+                words.add(stem(word.toString()));
+            }
+        }
+        return words;
+    }
+
+    public Scanner scanner() {
+        return new Scanner();
+    }
+
+    /**
+     * A phrase found in a transcript.
+     */
+    public static class Match {
+        private final String phrase;
+        private final int end;
+        private final double confidence;
+
+        Match(String phrase, int end, double confidence) {
+            this.phrase = phrase;
+            this.end = end;
+            this.confidence = confidence;
+        }
+
+        public String getPhrase() {
+            return phrase;
+        }
+
+        /**
+         * Index of the word after the last word of the phrase.
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * 1 for an exact match, less the more words had to be corrected.
+         */
+        public double getConfidence() {
+            return confidence;
+        }
+    }
+
+    /**
+     * Incremental matching of the growing transcript of one utterance at a time.
+     */
+    public class Scanner {
+        private int utterance = Integer.MIN_VALUE;
+        private final List<String> words = new ArrayList<>();
+        // Automaton state and accumulated edit cost after each scanned word.
+        private int[] states = new int[16];
+        private double[] costs = new double[16];
+
+        /**
+         * Scans a new hypothesis of an utterance.
+         *
+         * @return matches that end in words not seen in earlier hypotheses of the same utterance.
+         */
+        public List<Match> scan(int utterance, String transcript) {
+            List<String> next = tokenize(transcript);
+            int common = 0;
+            if (utterance == this.utterance) {
+                while (common < words.size() && common < next.size() && words.get(common).equals(next.get(common))) {
+                    common++;
+                }
+            }
+            this.utterance = utterance;
+
+            while (words.size() > common) {
+                words.remove(words.size() - 1);
+            }
+            if (states.length <= next.size()) {
+                states = Arrays.copyOf(states, next.size() * 2 + 1);
+                costs = Arrays.copyOf(costs, next.size() * 2 + 1);
+            }
+
+            List<Match> matches = new ArrayList<>();
+            int state = common == 0 ? ROOT : states[common - 1];
+            for (int i = common; i < next.size(); i++) {
+                String word = next.get(i);
+                words.add(word);
+
+                double cost = 0;
+                Integer token = vocabulary.get(word);
+                if (token == null) {
+                    String closest = closest(word);
+                    if (closest != null) {
+                        token = vocabulary.get(closest);
+                        cost = (double) distance(word, closest, maxEdits) / closest.length();
+                    }
+                }
+
+                state = step(state, token == null ? -1 : token);
+                states[i] = state;
+                costs[i] = cost;
+                for (int phrase : outputs[state]) {
+                    double penalty = 0;
+                    for (int w = i - phraseLengths[phrase] + 1; w <= i; w++) {
+                        penalty += costs[w];
+                    }
+                    matches.add(new Match(phrases.get(phrase), i + 1, 1 - penalty / phraseLengths[phrase]));
+                }
+            }
+            return matches;
+        }
+    }
+
+    private int step(int state, int token) {
+        while (true) {
+            Integer next = edges.get(state).get(token);
+            if (next != null) {
+                return next;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = failure[state];
+        }
+    }
+
+    /**
+     * Breadth first pass setting failure links and merging outputs along them.
+     */
+    private void link(List<List<Integer>> ends) {
+        failure = new int[edges.size()];
+        outputs = new int[edges.size()][];
+        outputs[ROOT] = toArray(ends.get(ROOT));
+
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : edges.get(ROOT).values()) {
+            failure[child] = ROOT;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.remove();
+            List<Integer> out = new ArrayList<>(ends.get(node));
+            for (int inherited : outputs[failure[node]]) {
+                out.add(inherited);
+            }
+            outputs[node] = toArray(out);
+
+            for (Map.Entry<Integer, Integer> edge : edges.get(node).entrySet()) {
+                int child = edge.getValue();
+                int f = failure[node];
+                while (f != ROOT && !edges.get(f).containsKey(edge.getKey())) {
+                    f = failure[f];
+                }
+                Integer target = edges.get(f).get(edge.getKey());
+                failure[child] = target != null && target != child ? target : ROOT;
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * The phrase word closest to {@code word} within the edit budget, if any.
+     */
+    private String closest(String word) {
+        if (maxEdits <= 0 || word.length() < MIN_FUZZY_LENGTH) {
+            return null;
+        }
+
+        String best = null;
+        int bestDistance = maxEdits + 1;
+        for (int length = word.length() - maxEdits; length <= word.length() + maxEdits; length++) {
+            for (String candidate : wordsByLength.getOrDefault(length, Collections.emptyList())) {
+                if (candidate.length() < MIN_FUZZY_LENGTH) {
+                    continue;
+                }
+                int d = distance(word, candidate, bestDistance - 1);
+                if (d < bestDistance) {
+                    bestDistance = d;
+                    best = candidate;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Levenshtein distance, or {@code limit + 1} as soon as it is known to exceed the limit.
+     */
+    static int distance(String a, String b, int limit) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int substitute = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitute, Math.min(previous[j], current[j - 1]) + 1);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > limit) {
+                return limit + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[b.length()], limit + 1);
+    }
+
+    private static String stem(String word) {
+        int n = word.length();
+        if (n > 4 && word.endsWith("ies")) {
+            return word.substring(0, n - 3) + "y";
+        }
+        if (n > 5 && word.endsWith("ing")) {
+            return word.substring(0, n - 3);
+        }
+        if (n > 4 && word.endsWith("ed")) {
+            return word.substring(0, n - 2);
+        }
+        if (n > 4 && (word.endsWith("ches") || word.endsWith("shes") || word.endsWith("xes") || word.endsWith("sses"))) {
+            return word.substring(0, n - 2);
+        }
+        if (n > 3 && word.endsWith("s") && !word.endsWith("ss") && !word.endsWith("us")) {
+            return word.substring(0, n - 1);
+        }
+        return word;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
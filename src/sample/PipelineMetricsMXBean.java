@@ -0,0 +1,17 @@
+package sample;
+
+import java.util.Map;
+
+/**
+ * Counters of the audio pipeline as seen over JMX.
+ *
+ * @author naiemk
+ */
+public interface PipelineMetricsMXBean {
+    Map<String, Long> getCounters();
+
+    /**
+     * The periodic log summary, on demand.
+     */
+    String getSummary();
+}
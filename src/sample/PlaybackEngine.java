@@ -0,0 +1,197 @@
+package sample;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Plays replies one after another on an {@link AudioSink}, the speakers unless told otherwise.
+ *
+ * Audio is written to the sink as soon as it is read from the source, so a reply that is
+ * still being synthesized starts playing with its first bytes. A reply is done when the
+ * sink drains, and {@link #bargeIn()} cuts off the current reply and drops the queued ones.
+ * Replies play on the {@link Lane#PLAYBACK} lane, an engine only holds a thread while it has
+ * something to say.
+ *
+ * @author naiemk
+ */
+public class PlaybackEngine {
+    private static final int CHUNK_MILLIS = 20;
+
+    private final Function<String, AudioInputStream> source;
+    private final AudioSink sink;
+    private final Queue<Pending> replies = new ArrayDeque<>();
+    private boolean draining;
+
+    private volatile boolean closed;
+    private volatile int generation;
+
+    // From queueing a reply to its first audio going out.
+    private long played;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+
+    public PlaybackEngine(Function<String, AudioInputStream> source) {
+        this(source, new SpeakerSink());
+    }
+
+    public PlaybackEngine(Function<String, AudioInputStream> source, AudioSink sink) {
+        this.source = source;
+        this.sink = sink;
+    }
+
+    /**
+     * Queues a reply behind the ones already waiting.
+     */
+    public void enqueue(String reply) {
+        synchronized (replies) {
+            if (closed) {
+                return;
+            }
+            replies.add(new Pending(reply, System.nanoTime()));
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+
+        try {
+            Lane.PLAYBACK.execute(this::play);
+        } catch (RejectedExecutionException e) {
+            synchronized (replies) {
+                draining = false;
+                replies.clear();
+            }
+            Metrics.REPLIES_DROPPED.increment();
+            System.out.println("Dropped reply, " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the reply being played right away and forgets the ones still queued.
+     */
+    public void bargeIn() {
+        synchronized (replies) {
+            generation++;
+            replies.clear();
+        }
+        sink.discard();
+    }
+
+    public boolean isPlaying() {
+        return sink.isActive();
+    }
+
+    /**
+     * Nothing playing and nothing queued.
+     */
+    public boolean isIdle() {
+        synchronized (replies) {
+            return !draining && replies.isEmpty();
+        }
+    }
+
+    public void close() {
+        closed = true;
+        bargeIn();
+        synchronized (replies) {
+            // A reply still playing sees the barge-in and closes the sink on its way out.
+            if (!draining) {
+                sink.close();
+            }
+        }
+    }
+
+    public synchronized long getPlayed() {
+        return played;
+    }
+
+    public synchronized double getMeanLatencyMillis() {
+        return played == 0 ? 0 : totalLatencyNanos / 1e6 / played;
+    }
+
+    public synchronized double getMaxLatencyMillis() {
+        return maxLatencyNanos / 1e6;
+    }
+
+    /**
+     * Plays the queued replies, then gives the thread back to the lane.
+     */
+    private void play() {
+        while (true) {
+            Pending reply;
+            int started;
+            synchronized (replies) {
+                reply = replies.poll();
+                if (reply == null || closed) {
+                    draining = false;
+                    if (closed) {
+                        sink.close();
+                    }
+                    return;
+                }
+                started = generation;
+            }
+
+            long asked = System.nanoTime();
+            try (AudioInputStream audio = source.apply(reply.text)) {
+                System.out.println("PLAYING: " + reply.text);
+                playOne(audio, reply, started, asked);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void playOne(AudioInputStream audio, Pending reply, int started, long asked) throws IOException {
+        AudioFormat format = audio.getFormat();
+        sink.open(format);
+        int frameSize = Math.max(1, format.getFrameSize());
+        int chunkBytes = (int) (format.getFrameRate() * CHUNK_MILLIS / 1000) * frameSize;
+        byte[] chunk = new byte[Math.max(frameSize, chunkBytes)];
+
+        boolean first = true;
+        int pending = 0;
+        int n;
+        while (started == generation && (n = audio.read(chunk, pending, chunk.length - pending)) >= 0) {
+            pending += n;
+            // Only whole frames can be written to the sink.
+            int whole = pending / frameSize * frameSize;
+            if (whole > 0) {
+                if (first) {
+                    first = false;
+                    Metrics.TTS_FIRST_BYTE.recordSince(asked);
+                    Metrics.PLAYBACK_START.recordSince(reply.queuedAt);
+                    recordLatency(System.nanoTime() - reply.queuedAt);
+                }
+                sink.write(chunk, 0, whole);
+                System.arraycopy(chunk, whole, chunk, 0, pending - whole);
+                pending -= whole;
+            }
+        }
+
+        if (started == generation) {
+            sink.drain();
+        }
+    }
+
+    private synchronized void recordLatency(long nanos) {
+        played++;
+        totalLatencyNanos += nanos;
+        maxLatencyNanos = Math.max(maxLatencyNanos, nanos);
+    }
+
+    private static class Pending {
+        private final String text;
+        private final long queuedAt;
+
+        Pending(String text, long queuedAt) {
+            this.text = text;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
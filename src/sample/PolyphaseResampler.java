@@ -0,0 +1,155 @@
+package sample;
+
+/**
+ * Converts a stream of samples from one rate to another by a rational factor L/M, like 1/3 for
+ * 48 kHz to 16 kHz or 160/441 for 44.1 kHz.
+ *
+ * The low pass filter is a Kaiser windowed sinc designed for an imaginary rate L times the input
+ * rate, cutting off just below the Nyquist frequency of the slower side. It is split into L
+ * phases, and every output sample is one dot product of a phase with the most recent input
+ * samples, so the L - 1 zeros of the upsampled signal and the M - 1 discarded outputs are never
+ * computed. Input goes into a ring written twice, the window of recent samples is always
+ * contiguous. Filters and buffers are allocated up front, converting allocates nothing. The
+ * output lags the input by {@link #getDelay()} seconds. An instance is meant to be used from one
+ * thread.
+ *
+ * @author naiemk
+ */
+public class PolyphaseResampler {
+    // Passband up to 90 % of the slower Nyquist frequency, stopband from the Nyquist frequency.
+    private static final double PASSBAND = 0.9;
+    public static final double DEFAULT_ATTENUATION_DB = 80;
+
+    private final int up;
+    private final int down;
+    private final int taps;
+    private final float[][] phases;
+    private final float[] history;
+    private final double delay;
+    private int position;
+    private long inputs;
+    private long nextInput;
+    private int phase;
+
+    public PolyphaseResampler(float inputRate, float outputRate) {
+        this(inputRate, outputRate, DEFAULT_ATTENUATION_DB);
+    }
+
+    /**
+     * @param attenuationDb how far the stopband is pushed down, more takes longer filters.
+     */
+    public PolyphaseResampler(float inputRate, float outputRate, double attenuationDb) {
+        long in = Math.round(inputRate);
+        long out = Math.round(outputRate);
+        if (in <= 0 || out <= 0 || in != inputRate || out != outputRate) {
+            throw new IllegalArgumentException("Rates must be whole numbers of hertz: " + inputRate + ", " + outputRate);
+        }
+        long gcd = gcd(in, out);
+        this.up = (int) (out / gcd);
+        this.down = (int) (in / gcd);
+
+        // Kaiser's estimates of the length and shape for the attenuation over the transition band,
+        // both in terms of the upsampled rate.
+        double nyquist = Math.min(in, out) / 2.0;
+        double transition = 2 * Math.PI * nyquist * (1 - PASSBAND) / ((double) in * up);
+        double cutoff = nyquist * (1 + PASSBAND) / 2 / ((double) in * up);
+        double beta = attenuationDb > 50 ? 0.1102 * (attenuationDb - 8.7)
+                : attenuationDb > 21 ? 0.5842 * Math.pow(attenuationDb - 21, 0.4) + 0.07886 * (attenuationDb - 21) : 0;
+        int length = (int) Math.ceil((attenuationDb - 8) / (2.285 * transition)) + 1;
+        this.taps = Math.max(1, (length + up - 1) / up);
+        length = taps * up;
+
+        // Phase p holds prototype taps p, p + L, p + 2L, ..., newest input last so the dot
+        // product runs forward over the ring. The gain of L makes up for the zeros never inserted.
+        phases = new float[up][taps];
+        double center = (length - 1) / 2.0;
+        double norm = bessel0(beta);
+        for (int n = 0; n < length; n++) {
+            double t = n - center;
+            double sinc = t == 0 ? 2 * cutoff : Math.sin(2 * Math.PI * cutoff * t) / (Math.PI * t);
+            double r = 2 * t / (length - 1);
+            double window = bessel0(beta * Math.sqrt(Math.max(0, 1 - r * r))) / norm;
+            phases[n % up][taps - 1 - n / up] = (float) (up * sinc * window);
+        }
+        this.history = new float[2 * taps];
+        this.delay = center / up / in;
+    }
+
+    public int getUp() {
+        return up;
+    }
+
+    public int getDown() {
+        return down;
+    }
+
+    /**
+     * Filter taps used for every output sample.
+     */
+    public int getTaps() {
+        return taps;
+    }
+
+    /**
+     * How far the output lags behind the input, in seconds.
+     */
+    public double getDelay() {
+        return delay;
+    }
+
+    /**
+     * The most output samples {@code inputs} input samples can produce, to size output buffers.
+     */
+    public int maxOutput(int inputs) {
+        return (int) ((long) inputs * up / down) + 1;
+    }
+
+    /**
+     * Converts {@code in[0, length)}, writing the output samples they complete to {@code out}.
+     *
+     * @return output samples written.
+     */
+    public int process(float[] in, int length, float[] out) {
+        int written = 0;
+        for (int i = 0; i < length; i++) {
+            history[position] = in[i];
+            history[position + taps] = in[i];
+            position = position + 1 == taps ? 0 : position + 1;
+
+            // Output k is centred on input k * M / L: emit every output whose newest input just arrived.
+            while (nextInput == inputs) {
+                float[] filter = phases[phase];
+                float sum = 0;
+                for (int j = 0, h = position; j < taps; j++, h++) {
+                    sum += filter[j] * history[h];
+                }
+                out[written++] = sum;
+                phase += down;
+                nextInput += phase / up;
+                phase %= up;
+            }
+            inputs++;
+        }
+        return written;
+    }
+
+    private static long gcd(long a, long b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    /**
+     * The zeroth order modified Bessel function of the first kind, by its power series.
+     */
+    private static double bessel0(double x) {
+        double sum = 1;
+        double term = 1;
+        for (int k = 1; k < 50; k++) {
+            term *= (x / (2 * k)) * (x / (2 * k));
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,46 @@
+package sample;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * One hypothesis from a {@link SpeechRecognizer}: what was heard in an utterance so far and
+ * which dialogue keywords were spotted in it.
+ *
+ * @author naiemk
+ */
+public class Recognition {
+    private final int utterance;
+    private final String transcript;
+    private final boolean isFinal;
+    private final Map<String, Double> keywords;
+
+    public Recognition(int utterance, String transcript, boolean isFinal, Map<String, Double> keywords) {
+        this.utterance = utterance;
+        this.transcript = transcript;
+        this.isFinal = isFinal;
+        this.keywords = Collections.unmodifiableMap(keywords);
+    }
+
+    /**
+     * Index of the utterance, hypotheses for the same utterance share it.
+     */
+    public int getUtterance() {
+        return utterance;
+    }
+
+    public String getTranscript() {
+        return transcript;
+    }
+
+    public boolean isFinal() {
+        return isFinal;
+    }
+
+    /**
+     * Spotted keywords with their confidence between 0 and 1.
+     */
+    public Map<String, Double> getKeywords() {
+        return keywords;
+    }
+}
@@ -1,56 +1,118 @@
 package sample;
 
 import javax.sound.sampled.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Consumer;
-import java.util.function.Supplier;
-import java.util.stream.Stream;
 
 /**
+ * Decodes the audio of a bus and hands it on as overlapping, windowed frames, see {@link Framer}.
+ *
  * @author naiemk
  */
 public class Recorder {
+    public static final int DEFAULT_FRAME = 1024;
+    public static final int DEFAULT_HOP = 512;
+
+    public static final String CAPTURE_RATE_ENV = "BLUELOGUE_CAPTURE_RATE";
+
     static final AudioFormat AUDIO_FORMAT = new AudioFormat(16000f, 16, 1, true, true);
-    static final Supplier<TargetDataLine> microphoneLine = () -> {
-        try {
-            return AudioSystem.getTargetDataLine(AUDIO_FORMAT);
-        } catch (LineUnavailableException e) {
-            throw new RuntimeException("Error getting microphone line.", e);
-        }
-    };
+
+    // Rates sound cards run at, fastest first. Asking for one of these in 16 bit little endian
+    // keeps Java Sound from converting, or refusing a format the mixer does not have.
+    private static final float[] NATIVE_RATES = {48000f, 44100f, 32000f, 22050f, 16000f};
 
     private Consumer<MicData> micreceiver;
+    private final Framer framer;
 
+    /**
+     * Hann windowed frames of {@value #DEFAULT_FRAME} samples every {@value #DEFAULT_HOP} samples.
+     */
     public Recorder(Consumer<MicData> micreceiver) {
+        this(micreceiver, DEFAULT_FRAME, DEFAULT_HOP, Framer.Window.HANN);
+    }
 
+    public Recorder(Consumer<MicData> micreceiver, int frameSize, int hopSize, Framer.Window window) {
         this.micreceiver = micreceiver;
+        this.framer = new Framer(frameSize, hopSize, window);
+    }
+
+    /**
+     * Opens the default microphone at a rate it captures natively, {@value #CAPTURE_RATE_ENV} if
+     * set, and {@link #AUDIO_FORMAT} only if it takes nothing else.
+     */
+    static TargetDataLine openMicrophone() {
+        Exception last = null;
+        for (AudioFormat format : captureFormats()) {
+            DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
+            if (!AudioSystem.isLineSupported(info)) {
+                continue;
+            }
+            try {
+                TargetDataLine line = (TargetDataLine) AudioSystem.getLine(info);
+                line.open(format);
+                return line;
+            } catch (LineUnavailableException | IllegalArgumentException e) {
+                last = e;
+            }
+        }
+        throw new RuntimeException("Error opening microphone line.", last);
     }
 
-    public void start(CancellationToken cancel) {
-        try {
-            TargetDataLine microphone = microphoneLine.get();
-            microphone.open(AUDIO_FORMAT);
+    private static List<AudioFormat> captureFormats() {
+        String rate = System.getenv(CAPTURE_RATE_ENV);
+        float[] rates = rate == null ? NATIVE_RATES : new float[] {Float.parseFloat(rate)};
+        List<AudioFormat> formats = new ArrayList<>();
+        for (float r : rates) {
+            formats.add(new AudioFormat(r, 16, 1, true, false));
+            formats.add(new AudioFormat(r, 16, 2, true, false));
+        }
+        formats.add(AUDIO_FORMAT);
+        return formats;
+    }
 
+    public void start(AudioBus bus, CancellationToken cancel) {
+        try (AudioBus.Subscription microphone = bus.subscribe()) {
+            // Wakes up the read below, which then sees the end of the stream.
+            cancel.onCancel(microphone::close);
+            AudioFormat format = bus.getFormat();
             int numBytesRead;
-            int CHUNK_SIZE = 1024;
-            byte[] data = new byte[microphone.getBufferSize()];
-            microphone.start();
+            int CHUNK_SIZE = bus.getFrameBytes();
+            byte[] data = new byte[CHUNK_SIZE];
 
-            float[] samples = new float[AUDIO_FORMAT.getChannels() * CHUNK_SIZE];
+            // A chunk holds CHUNK_SIZE / frame size samples per channel, not CHUNK_SIZE of them.
+            int channels = format.getChannels();
+            float[] samples = new float[CHUNK_SIZE / format.getFrameSize() * channels];
             long[] transfer = new long[samples.length];
 
-            while (!cancel.cancelled) {
-                numBytesRead = microphone.read(data, 0, CHUNK_SIZE);
-                samples = unpack(data, transfer, samples, numBytesRead, AUDIO_FORMAT);
-                final float[] newSamples = samples;
-
-                Stream.of(data).forEach(b -> micreceiver.accept(MicData.from(newSamples)));
+            while (!cancel.cancelled && (numBytesRead = microphone.read(data, 0)) >= 0) {
+                Metrics.CAPTURE.recordSince(microphone.getCapturedAt());
+                samples = unpack(data, transfer, samples, numBytesRead, format);
+                int frames = numBytesRead / format.getFrameSize();
+                framer.push(samples, mixDown(samples, frames, channels), micreceiver);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            microphone.stop();
-            microphone.close();
-        } catch (LineUnavailableException e) {
-            e.printStackTrace();
+    /**
+     * Averages interleaved channels into the first {@code frames} samples.
+     *
+     * @return number of mono samples.
+     */
+    static int mixDown(float[] samples, int frames, int channels) {
+        if (channels == 1) {
+            return frames;
+        }
+        for (int f = 0; f < frames; f++) {
+            float sum = 0;
+            for (int c = 0; c < channels; c++) {
+                sum += samples[f * channels + c];
+            }
+            samples[f] = sum / channels;
         }
+        return frames;
     }
 
     public static float[] unpack(
@@ -60,6 +122,75 @@ public class Recorder {
             int bvalid,
             AudioFormat fmt
     ) {
+
+        /*
+         * the formats we actually capture get a single pass decoder
+         * that goes straight from bytes to floats. anything else
+         * takes the generic path through the transfer array.
+         *
+         */
+
+        final int bits = fmt.getSampleSizeInBits();
+        final boolean signed = fmt.getEncoding() == AudioFormat.Encoding.PCM_SIGNED;
+
+        if(signed && bits == 16) {
+            return fmt.isBigEndian()
+                    ? unpack16BigEndian(bytes, samples, bvalid)
+                    : unpack16LittleEndian(bytes, samples, bvalid);
+        }
+        if(signed && bits == 24 && !fmt.isBigEndian()) {
+            return unpack24LittleEndian(bytes, samples, bvalid);
+        }
+        if(bits == 8 && (signed || fmt.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED)) {
+            return unpack8(bytes, samples, bvalid, signed);
+        }
+
+        return unpackGeneric(bytes, transfer, samples, bvalid, fmt);
+    }
+
+    static float[] unpack16BigEndian(byte[] bytes, float[] samples, int bvalid) {
+        final int n = bvalid >> 1;
+        for(int k = 0, i = 0; k < n; k++, i += 2) {
+            samples[k] = (short)((bytes[i] << 8) | (bytes[i + 1] & 0xff)) * (1f / 32768f);
+        }
+        return samples;
+    }
+
+    static float[] unpack16LittleEndian(byte[] bytes, float[] samples, int bvalid) {
+        final int n = bvalid >> 1;
+        for(int k = 0, i = 0; k < n; k++, i += 2) {
+            samples[k] = (short)((bytes[i + 1] << 8) | (bytes[i] & 0xff)) * (1f / 32768f);
+        }
+        return samples;
+    }
+
+    static float[] unpack24LittleEndian(byte[] bytes, float[] samples, int bvalid) {
+        final int n = bvalid / 3;
+        for(int k = 0, i = 0; k < n; k++, i += 3) {
+
+            /* assemble in the top 24 bits so the shift back sign extends. */
+
+            int v = (bytes[i + 2] << 24) | ((bytes[i + 1] & 0xff) << 16) | ((bytes[i] & 0xff) << 8);
+            samples[k] = (v >> 8) * (1f / 8388608f);
+        }
+        return samples;
+    }
+
+    static float[] unpack8(byte[] bytes, float[] samples, int bvalid, boolean signed) {
+        final int offset = signed ? 0 : 128;
+        for(int k = 0; k < bvalid; k++) {
+            samples[k] = ((signed ? bytes[k] : bytes[k] & 0xff) - offset) * (1f / 128f);
+        }
+        return samples;
+    }
+
+    public static float[] unpackGeneric(
+            byte[] bytes,
+            long[] transfer,
+            float[] samples,
+            int bvalid,
+            AudioFormat fmt
+    ) {
         if(fmt.getEncoding() != AudioFormat.Encoding.PCM_SIGNED
                 && fmt.getEncoding() != AudioFormat.Encoding.PCM_UNSIGNED) {
 
@@ -0,0 +1,101 @@
+package sample;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Stands in for a recognizer when replaying a recorded session: hands out the recorded
+ * hypotheses once the replayed audio reaches the point where they arrived.
+ *
+ * Has to be started before the bus, so it sees every frame.
+ *
+ * @author naiemk
+ */
+public class ReplayRecognizer implements SpeechRecognizer {
+    private final AudioBus bus;
+    private final List<SessionReader.Recorded<Recognition>> recognitions;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private volatile boolean stopped;
+    private volatile long frame;
+    private Future<?> drain;
+    private Future<?> timing;
+
+    public ReplayRecognizer(AudioBus bus, List<SessionReader.Recorded<Recognition>> recognitions) {
+        this.bus = bus;
+        this.recognitions = recognitions;
+    }
+
+    @Override
+    public void start(InputStream audio, Collection<String> keywords, Consumer<Recognition> listener) {
+        // The uplink is read like a real recognizer would, so it keeps up with the bus.
+        drain = Lane.DSP.submit(() -> {
+            byte[] chunk = new byte[4096];
+            try {
+                while (!stopped && audio.read(chunk) >= 0) {
+                    // Thrown away.
+                }
+            } catch (IOException e) {
+                if (!stopped) {
+                    e.printStackTrace();
+                }
+            }
+        });
+
+        AudioBus.Subscription frames = bus.subscribe();
+        timing = Lane.DSP.submit(() -> {
+            byte[] frame = new byte[bus.getFrameBytes()];
+            int next = 0;
+            long seen = 0;
+            try (AudioBus.Subscription s = frames) {
+                while (!stopped && s.read(frame, 0) >= 0) {
+                    seen++;
+                    while (!stopped && next < recognitions.size() && recognitions.get(next).getFrame() <= seen) {
+                        deliver(recognitions.get(next++), listener);
+                    }
+                }
+                // Whatever arrived after the last of the audio.
+                while (!stopped && next < recognitions.size()) {
+                    deliver(recognitions.get(next++), listener);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done.complete(null);
+            }
+        });
+    }
+
+    private void deliver(SessionReader.Recorded<Recognition> recognition, Consumer<Recognition> listener) {
+        frame = recognition.getFrame();
+        listener.accept(recognition.getValue());
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        if (drain != null) {
+            drain.cancel(true);
+            timing.cancel(true);
+        }
+        done.complete(null);
+    }
+
+    /**
+     * The bus frame at which the hypothesis handed out last was recorded.
+     */
+    public long getFrame() {
+        return frame;
+    }
+
+    /**
+     * Completes once every recorded hypothesis was handed out, or on stop.
+     */
+    public CompletableFuture<Void> done() {
+        return done;
+    }
+}
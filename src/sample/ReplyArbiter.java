@@ -0,0 +1,110 @@
+package sample;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides which spotted keyword, if any, gets a reply.
+ *
+ * Every interim and final hypothesis of an utterance reports the keywords again. A keyword only
+ * fires once per utterance, not again within its cooldown after it fired, and when several are
+ * eligible at once the most confident one wins.
+ *
+ * @author naiemk
+ */
+public class ReplyArbiter {
+    public static final long DEFAULT_COOLDOWN_MILLIS = 3000;
+
+    // Late hypotheses of older utterances can still arrive, so a few are remembered.
+    private static final int REMEMBERED_UTTERANCES = 8;
+
+    private final long defaultCooldownNanos;
+    private final Map<String, Long> cooldownNanos = new HashMap<>();
+    private final Map<String, Long> lastFired = new HashMap<>();
+    private final Map<Integer, Set<String>> firedInUtterance = new LinkedHashMap<Integer, Set<String>>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Set<String>> eldest) {
+            return size() > REMEMBERED_UTTERANCES;
+        }
+    };
+
+    private LongSupplier clock = System::nanoTime;
+    private long fired;
+    private long suppressed;
+
+    public ReplyArbiter() {
+        this(DEFAULT_COOLDOWN_MILLIS);
+    }
+
+    public ReplyArbiter(long defaultCooldownMillis) {
+        this.defaultCooldownNanos = TimeUnit.MILLISECONDS.toNanos(defaultCooldownMillis);
+    }
+
+    /**
+     * Where time comes from, nanoseconds like {@link System#nanoTime()}. Replays use audio time.
+     */
+    public synchronized void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public synchronized void setCooldown(String keyword, long millis) {
+        cooldownNanos.put(keyword, TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Picks the keyword to reply to.
+     *
+     * @param candidates spotted keywords with their confidence.
+     * @return the keyword, or null if none of them should fire.
+     */
+    public synchronized String choose(int utterance, Map<String, Double> candidates) {
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        long now = clock.getAsLong();
+        Set<String> already = firedInUtterance.computeIfAbsent(utterance, u -> new HashSet<>());
+        String best = null;
+        double bestConfidence = Double.NEGATIVE_INFINITY;
+        for (Map.Entry<String, Double> candidate : candidates.entrySet()) {
+            String keyword = candidate.getKey();
+            if (already.contains(keyword) || coolingDown(keyword, now)) {
+                continue;
+            }
+            if (candidate.getValue() > bestConfidence) {
+                bestConfidence = candidate.getValue();
+                best = keyword;
+            }
+        }
+
+        if (best == null) {
+            suppressed++;
+            return null;
+        }
+        already.add(best);
+        lastFired.put(best, now);
+        fired++;
+        return best;
+    }
+
+    public synchronized long getFired() {
+        return fired;
+    }
+
+    /**
+     * Hypotheses that spotted keywords but got no reply.
+     */
+    public synchronized long getSuppressed() {
+        return suppressed;
+    }
+
+    private boolean coolingDown(String keyword, long now) {
+        Long last = lastFired.get(keyword);
+        return last != null && now - last < cooldownNanos.getOrDefault(keyword, defaultCooldownNanos);
+    }
+}
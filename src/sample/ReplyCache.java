@@ -0,0 +1,370 @@
+package sample;
+
+import com.ibm.watson.developer_cloud.text_to_speech.v1.TextToSpeech;
+import com.ibm.watson.developer_cloud.text_to_speech.v1.model.Voice;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of synthesized replies.
+ *
+ * Decoded PCM is kept in a bounded LRU map in memory and written to a content addressed
+ * store on disk, keyed by the hash of (text, voice, format), so a reply is synthesized
+ * over the network at most once across restarts. A reply being synthesized, for a preload or for
+ * playback, is synthesized once and everyone asking for it meanwhile waits for that one. Disk
+ * writes run on {@link Lane#IO}, never on the thread playing the reply.
+ *
+ * @author naiemk
+ */
+public class ReplyCache {
+    public static final long DEFAULT_MEMORY_BYTES = 64L * 1024 * 1024;
+    public static final File DEFAULT_DIRECTORY =
+            new File(System.getProperty("user.home"), ".bluelogue" + File.separator + "tts");
+    private static final int SYNTHESIS_THREADS = 4;
+
+    private static final int SYNTHESIS_QUEUE = 4096;
+
+    // Network calls, but bounded so preloading a long dialogue does not flood the service.
+    private static final Lane synthesizer = new Lane("tts-synthesizer", SYNTHESIS_THREADS, SYNTHESIS_QUEUE, Thread.NORM_PRIORITY);
+
+    private final TextToSpeech textToSpeech;
+    private final Voice voice;
+    private final com.ibm.watson.developer_cloud.text_to_speech.v1.model.AudioFormat format;
+    private final File directory;
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, SpeechClip> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<SpeechClip>> inFlight = new ConcurrentHashMap<>();
+    private long memoryBytes;
+
+    public ReplyCache(TextToSpeech textToSpeech,
+                      Voice voice,
+                      com.ibm.watson.developer_cloud.text_to_speech.v1.model.AudioFormat format) {
+        this(textToSpeech, voice, format, DEFAULT_DIRECTORY, DEFAULT_MEMORY_BYTES);
+    }
+
+    public ReplyCache(TextToSpeech textToSpeech,
+                      Voice voice,
+                      com.ibm.watson.developer_cloud.text_to_speech.v1.model.AudioFormat format,
+                      File directory,
+                      long maxBytes) {
+        this.textToSpeech = textToSpeech;
+        this.voice = voice;
+        this.format = format;
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            System.out.println("Cannot create reply cache directory " + directory + ", caching in memory only.");
+        }
+    }
+
+    /**
+     * Synthesizes all the given replies in parallel, skipping the ones already cached. Replies
+     * that fail are logged, they are synthesized again when played.
+     */
+    public CompletableFuture<Void> preload(Collection<String> replies) {
+        return CompletableFuture.allOf(replies.stream()
+                .distinct()
+                .map(text -> getAsync(text).whenComplete((clip, e) -> {
+                    if (e != null) {
+                        System.out.println("Cannot preload reply \"" + text + "\": "
+                                + (e.getCause() != null ? e.getCause() : e));
+                    }
+                }))
+                .toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Returns the decoded reply, synthesizing it only if neither memory nor disk has it.
+     */
+    public SpeechClip get(String text) {
+        return getAsync(text).join();
+    }
+
+    public CompletableFuture<SpeechClip> getAsync(String text) {
+        String key = key(text);
+        SpeechClip clip = fromMemory(key);
+        if (clip != null) {
+            return CompletableFuture.completedFuture(clip);
+        }
+
+        CompletableFuture<SpeechClip> pending = inFlight.computeIfAbsent(key,
+                k -> CompletableFuture.supplyAsync(() -> load(k, text), synthesizer));
+        pending.whenComplete((c, e) -> inFlight.remove(key, pending));
+        return pending;
+    }
+
+    /**
+     * Opens the reply for playback. Cached replies are served from memory or disk, a reply being
+     * synthesized already is waited for, anything else is streamed from the synthesizer as it
+     * arrives and cached once fully read.
+     */
+    public AudioInputStream stream(String text) {
+        String key = key(text);
+        SpeechClip clip = fromMemory(key);
+        if (clip == null) {
+            CompletableFuture<SpeechClip> pending = inFlight.get(key);
+            if (pending == null && new File(directory, key + ".wav").isFile()) {
+                clip = load(key, text);
+            } else {
+                CompletableFuture<SpeechClip> live = new CompletableFuture<>();
+                if (pending == null && (pending = inFlight.putIfAbsent(key, live)) == null) {
+                    return openLive(key, text, live);
+                }
+                try {
+                    clip = pending.join();
+                } catch (CompletionException e) {
+                    // The synthesis waited for failed or was cut short by a barge-in, start over.
+                    inFlight.remove(key, pending);
+                    return stream(text);
+                }
+            }
+        }
+
+        return new AudioInputStream(new ByteArrayInputStream(clip.getPcm()),
+                clip.getFormat(), clip.size() / clip.getFormat().getFrameSize());
+    }
+
+    /**
+     * Streams a reply nobody is synthesizing yet, completing {@code live} once it was read to the end.
+     */
+    private AudioInputStream openLive(String key, String text, CompletableFuture<SpeechClip> live) {
+        live.whenComplete((c, e) -> inFlight.remove(key, live));
+        try {
+            Recording recording = openSynthesis(key, text, live);
+            return new AudioInputStream(recording, recording.format, AudioSystem.NOT_SPECIFIED);
+        } catch (IOException e) {
+            live.completeExceptionally(e);
+            throw new RuntimeException("Error synthesizing reply: " + text, e);
+        } catch (RuntimeException e) {
+            live.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private SpeechClip load(String key, String text) {
+        try {
+            File file = new File(directory, key + ".wav");
+            if (file.isFile()) {
+                SpeechClip clip = readWave(file);
+                toMemory(key, clip);
+                return clip;
+            }
+
+            try (Recording recording = openSynthesis(key, text, null)) {
+                IOUtils.copy(recording, NullOutputStream.NULL_OUTPUT_STREAM);
+                return recording.clip;
+            }
+        } catch (IOException | UnsupportedAudioFileException e) {
+            throw new RuntimeException("Error synthesizing reply: " + text, e);
+        }
+    }
+
+    private Recording openSynthesis(String key, String text, CompletableFuture<SpeechClip> done) throws IOException {
+        InputStream stream = textToSpeech.synthesize(text, voice, format).execute();
+        try {
+            return new Recording(stream, key, readWaveHeader(stream), done);
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    private void store(String key, SpeechClip clip) {
+        toMemory(key, clip);
+        if (directory.isDirectory()) {
+            Lane.IO.execute(() -> write(key, clip));
+        }
+    }
+
+    private void write(String key, SpeechClip clip) {
+        try {
+            File tmp = File.createTempFile("reply", ".tmp", directory);
+            try (AudioInputStream audio = new AudioInputStream(new ByteArrayInputStream(clip.getPcm()),
+                    clip.getFormat(), clip.size() / clip.getFormat().getFrameSize())) {
+                AudioSystem.write(audio, AudioFileFormat.Type.WAVE, tmp);
+            }
+            Files.move(tmp.toPath(), new File(directory, key + ".wav").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static SpeechClip readWave(File file) throws IOException, UnsupportedAudioFileException {
+        try (AudioInputStream audio = AudioSystem.getAudioInputStream(file)) {
+            return new SpeechClip(audio.getFormat(), IOUtils.toByteArray(audio));
+        }
+    }
+
+    /**
+     * Reads a WAV header up to the start of the sample data. Sizes in the header are ignored,
+     * the synthesizer streams the reply before it knows its length.
+     */
+    private static AudioFormat readWaveHeader(InputStream wave) throws IOException {
+        DataInputStream in = new DataInputStream(wave);
+        byte[] id = new byte[4];
+        in.readFully(id);
+        in.readInt();
+        byte[] type = new byte[4];
+        in.readFully(type);
+        if (!"RIFF".equals(new String(id, StandardCharsets.US_ASCII))
+                || !"WAVE".equals(new String(type, StandardCharsets.US_ASCII))) {
+            throw new IOException("Synthesized reply is not a WAV stream.");
+        }
+
+        AudioFormat format = null;
+        while (true) {
+            in.readFully(id);
+            String chunk = new String(id, StandardCharsets.US_ASCII);
+            int size = Integer.reverseBytes(in.readInt());
+            if ("data".equals(chunk)) {
+                if (format == null) {
+                    throw new IOException("WAV data chunk before fmt chunk.");
+                }
+                return format;
+            }
+
+            int skip = size + (size & 1);
+            if ("fmt ".equals(chunk)) {
+                in.readShort();
+                int channels = Short.reverseBytes(in.readShort());
+                int rate = Integer.reverseBytes(in.readInt());
+                in.readInt();
+                in.readShort();
+                int bits = Short.reverseBytes(in.readShort());
+                format = new AudioFormat(rate, bits, channels, bits > 8, false);
+                skip -= 16;
+            }
+            IOUtils.skipFully(in, skip);
+        }
+    }
+
+    private synchronized SpeechClip fromMemory(String key) {
+        return memory.get(key);
+    }
+
+    private synchronized void toMemory(String key, SpeechClip clip) {
+        SpeechClip previous = memory.put(key, clip);
+        memoryBytes += clip.size() - (previous == null ? 0 : previous.size());
+
+        // Evict least recently played replies until we are under budget again.
+        Iterator<Map.Entry<String, SpeechClip>> eldest = memory.entrySet().iterator();
+        while (memoryBytes > maxBytes && memory.size() > 1 && eldest.hasNext()) {
+            Map.Entry<String, SpeechClip> e = eldest.next();
+            if (e.getValue() == clip) {
+                continue;
+            }
+            memoryBytes -= e.getValue().size();
+            eldest.remove();
+        }
+    }
+
+    private String key(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(text.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(voice.getName().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(format.toString().getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Passes the synthesized stream through to the player and caches it once it has been read to
+     * the end. {@code done}, if given, completes with the clip then, or fails if the stream broke
+     * or was closed before.
+     */
+    private class Recording extends FilterInputStream {
+        private final String key;
+        private final AudioFormat format;
+        private final CompletableFuture<SpeechClip> done;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private SpeechClip clip;
+
+        Recording(InputStream in, String key, AudioFormat format, CompletableFuture<SpeechClip> done) {
+            super(in);
+            this.key = key;
+            this.format = format;
+            this.done = done;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+            try {
+                n = super.read(b, off, len);
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+            if (n > 0) {
+                buffer.write(b, off, n);
+            } else if (n < 0 && clip == null) {
+                clip = new SpeechClip(format, buffer.toByteArray());
+                store(key, clip);
+                if (done != null) {
+                    done.complete(clip);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            fail(new IOException("Reply closed before its end."));
+            super.close();
+        }
+
+        private void fail(IOException e) {
+            if (done != null && clip == null) {
+                done.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            throw new IOException("Skipping would leave a hole in the cached reply.");
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package sample;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Quality and cost of {@link PolyphaseResampler} from the rates sound cards capture at down to
+ * {@link Recorder#AUDIO_FORMAT}, next to the conversion Java Sound does when asked for 16 kHz.
+ *
+ * Quality is the SNR of a few speech band tones against the exact signal at the output rate,
+ * and how far a tone above 8 kHz that would alias is pushed down. Cost is CPU time and heap
+ * allocated per second of audio. Run with {@code java sample.ResamplerBenchmark [seconds]};
+ * it exits with status 1 if the resampler falls below {@value #MIN_SNR_DB} dB on either.
+ *
+ * @author naiemk
+ */
+public class ResamplerBenchmark {
+    private static final float[] RATES = {48000f, 44100f, 22050f};
+    private static final double[] TONES = {220, 1000, 3100, 6000};
+    private static final double ALIAS_TONE = 10000;
+    private static final double MIN_SNR_DB = 70;
+    private static final int CHUNK = 512;
+    private static final float OUTPUT_RATE = Recorder.AUDIO_FORMAT.getSampleRate();
+
+    public static void main(String[] args) throws IOException {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 20;
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        boolean ok = true;
+
+        System.out.printf("%-10s %-11s %6s %9s %9s %12s %10s %12s%n",
+                "input", "resampler", "taps", "SNR dB", "alias dB", "us/s audio", "% of core", "bytes/s");
+        for (float rate : RATES) {
+            float[] speech = tones(TONES, rate, seconds);
+            float[] alias = tones(new double[] {ALIAS_TONE}, rate, 1);
+
+            PolyphaseResampler resampler = new PolyphaseResampler(rate, OUTPUT_RATE);
+            float[] out = new float[resampler.maxOutput(speech.length)];
+            resample(new PolyphaseResampler(rate, OUTPUT_RATE), speech, out);
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long cpu = threads.getCurrentThreadCpuTime();
+            out = Arrays.copyOf(out, resample(resampler, speech, out));
+            cpu = threads.getCurrentThreadCpuTime() - cpu;
+            bytes = threads.getThreadAllocatedBytes(thread) - bytes - 4L * out.length;
+            double snr = snr(out, TONES, resampler.getDelay());
+            double rejection = rejection(resample(rate, alias));
+            print(rate, "polyphase", resampler.getTaps(), snr, rejection, cpu, bytes, seconds);
+            ok &= snr >= MIN_SNR_DB && (rate / 2 <= ALIAS_TONE || rejection >= MIN_SNR_DB);
+
+            AudioFormat source = new AudioFormat(rate, 16, 1, true, false);
+            if (AudioSystem.isConversionSupported(Recorder.AUDIO_FORMAT, source)) {
+                javaSound(speech, source);
+                cpu = threads.getCurrentThreadCpuTime();
+                bytes = threads.getThreadAllocatedBytes(thread);
+                out = javaSound(speech, source);
+                cpu = threads.getCurrentThreadCpuTime() - cpu;
+                bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+                snr = snr(out, TONES, Double.NaN);
+                rejection = rejection(javaSound(alias, source));
+                print(rate, "java sound", 0, snr, rejection, cpu, bytes, seconds);
+            }
+        }
+
+        if (!ok) {
+            System.out.println("Resampler below " + MIN_SNR_DB + " dB.");
+            System.exit(1);
+        }
+    }
+
+    private static void print(float rate, String name, int taps, double snr, double rejection,
+                              long cpuNanos, long bytes, double seconds) {
+        System.out.printf("%-10.0f %-11s %6s %9.1f %9s %12.0f %10.3f %12.0f%n", rate, name,
+                taps == 0 ? "" : String.valueOf(taps), snr,
+                rate / 2 > ALIAS_TONE ? String.format("%.1f", rejection) : "",
+                cpuNanos / 1e3 / seconds, cpuNanos / 1e7 / seconds, bytes / seconds);
+    }
+
+    private static float[] resample(float rate, float[] in) {
+        PolyphaseResampler resampler = new PolyphaseResampler(rate, OUTPUT_RATE);
+        float[] out = new float[resampler.maxOutput(in.length)];
+        return Arrays.copyOf(out, resample(resampler, in, out));
+    }
+
+    /**
+     * Runs the samples through in capture sized chunks.
+     *
+     * @return output samples.
+     */
+    private static int resample(PolyphaseResampler resampler, float[] in, float[] out) {
+        float[] chunk = new float[CHUNK];
+        float[] converted = new float[resampler.maxOutput(CHUNK)];
+        int written = 0;
+        for (int at = 0; at < in.length; at += CHUNK) {
+            int n = Math.min(CHUNK, in.length - at);
+            System.arraycopy(in, at, chunk, 0, n);
+            int m = resampler.process(chunk, n, converted);
+            System.arraycopy(converted, 0, out, written, m);
+            written += m;
+        }
+        return written;
+    }
+
+    private static float[] javaSound(float[] in, AudioFormat source) throws IOException {
+        byte[] pcm = new byte[in.length * 2];
+        for (int i = 0; i < in.length; i++) {
+            int s = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(in[i] * 32768f)));
+            pcm[2 * i] = (byte) s;
+            pcm[2 * i + 1] = (byte) (s >> 8);
+        }
+        AudioInputStream converted = AudioSystem.getAudioInputStream(Recorder.AUDIO_FORMAT,
+                new AudioInputStream(new ByteArrayInputStream(pcm), source, in.length));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[AudioBus.FRAME_BYTES];
+        for (int n; (n = converted.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+        byte[] bytes = out.toByteArray();
+        float[] samples = new float[bytes.length / 2];
+        return Recorder.unpack(bytes, new long[samples.length], samples, bytes.length, Recorder.AUDIO_FORMAT);
+    }
+
+    private static float[] tones(double[] frequencies, float rate, double seconds) {
+        float[] samples = new float[(int) (rate * seconds)];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) tone(frequencies, i / (double) rate);
+        }
+        return samples;
+    }
+
+    private static double tone(double[] frequencies, double t) {
+        double s = 0;
+        for (double f : frequencies) {
+            s += 0.2 * Math.sin(2 * Math.PI * f * t + f);
+        }
+        return s;
+    }
+
+    /**
+     * Signal to error ratio against the exact tones delayed by {@code delay} seconds, or by the
+     * delay that fits best if it is not known. The first and last 10 % are left out.
+     */
+    private static double snr(float[] out, double[] frequencies, double delay) {
+        int from = out.length / 10;
+        int to = out.length - from;
+        if (Double.isNaN(delay)) {
+            double best = Double.MAX_VALUE;
+            int probe = (int) Math.min(to, from + OUTPUT_RATE / 4);
+            for (double d = -0.01; d < 0.01; d += 0.1 / OUTPUT_RATE) {
+                double error = error(out, frequencies, d, from, probe);
+                if (error < best) {
+                    best = error;
+                    delay = d;
+                }
+            }
+        }
+        double signal = 0;
+        for (int i = from; i < to; i++) {
+            signal += out[i] * (double) out[i];
+        }
+        return 10 * Math.log10(signal / error(out, frequencies, delay, from, to));
+    }
+
+    private static double error(float[] out, double[] frequencies, double delay, int from, int to) {
+        double error = 0;
+        for (int i = from; i < to; i++) {
+            double e = out[i] - tone(frequencies, i / (double) OUTPUT_RATE - delay);
+            error += e * e;
+        }
+        return error;
+    }
+
+    /**
+     * How much quieter the resampled alias tone is than the tone itself, in dB.
+     */
+    private static double rejection(float[] out) {
+        int from = out.length / 10;
+        double power = 0;
+        for (int i = from; i < out.length - from; i++) {
+            power += out[i] * (double) out[i];
+        }
+        power /= Math.max(1, out.length - 2 * from);
+        return 10 * Math.log10(0.2 * 0.2 / 2 / Math.max(power, 1e-30));
+    }
+}
@@ -0,0 +1,130 @@
+package sample;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Audio in the format a device captures natively, read as 16 bit signed mono at another rate.
+ *
+ * Each read pulls a chunk of the source, decodes it with {@link Recorder#unpack}, mixes it down
+ * to mono and runs it through a {@link PolyphaseResampler}, unless the rates already match and
+ * only the sample layout differs. Every buffer is allocated up front.
+ *
+ * @author naiemk
+ */
+public class ResamplingInputStream extends InputStream {
+    private static final int CHUNK_FRAMES = 512;
+
+    private final InputStream source;
+    private final AudioFormat sourceFormat;
+    private final AudioFormat format;
+    private final PolyphaseResampler resampler;
+    private final byte[] chunk;
+    private final long[] transfer;
+    private float[] samples;
+    private final float[] resampled;
+    private final byte[] pending;
+    private int pendingStart;
+    private int pendingEnd;
+    private boolean ended;
+
+    /**
+     * @param format 16 bit signed PCM, one channel.
+     */
+    public ResamplingInputStream(InputStream source, AudioFormat sourceFormat, AudioFormat format) {
+        if (format.getSampleSizeInBits() != 16 || format.getChannels() != 1
+                || format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED) {
+            throw new IllegalArgumentException("Can only resample to 16 bit signed mono: " + format);
+        }
+        this.source = source;
+        this.sourceFormat = sourceFormat;
+        this.format = format;
+        this.resampler = sourceFormat.getSampleRate() == format.getSampleRate() ? null
+                : new PolyphaseResampler(sourceFormat.getSampleRate(), format.getSampleRate());
+        this.chunk = new byte[CHUNK_FRAMES * sourceFormat.getFrameSize()];
+        this.transfer = new long[CHUNK_FRAMES * sourceFormat.getChannels()];
+        this.samples = new float[transfer.length];
+        this.resampled = resampler == null ? null : new float[resampler.maxOutput(CHUNK_FRAMES)];
+        this.pending = new byte[(resampler == null ? CHUNK_FRAMES : resampled.length) * 2];
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Null if the rates match.
+     */
+    public PolyphaseResampler getResampler() {
+        return resampler;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (pendingStart == pendingEnd) {
+            if (ended || !fill()) {
+                ended = true;
+                return -1;
+            }
+        }
+        int n = Math.min(len, pendingEnd - pendingStart);
+        System.arraycopy(pending, pendingStart, b, off, n);
+        pendingStart += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return pendingEnd - pendingStart;
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    /**
+     * Converts the next chunk of the source.
+     *
+     * @return false at the end of the source.
+     */
+    private boolean fill() throws IOException {
+        int frameSize = sourceFormat.getFrameSize();
+        int read = 0;
+        // Decoding works on whole frames, a read may stop in the middle of one.
+        do {
+            int n = source.read(chunk, read, chunk.length - read);
+            if (n < 0) {
+                if (read < frameSize) {
+                    return false;
+                }
+                break;
+            }
+            read += n;
+        } while (read % frameSize != 0 || read == 0);
+
+        int frames = read / frameSize;
+        samples = Recorder.unpack(chunk, transfer, samples, frames * frameSize, sourceFormat);
+        int mono = Recorder.mixDown(samples, frames, sourceFormat.getChannels());
+        float[] converted = resampler == null ? samples : resampled;
+        int out = resampler == null ? mono : resampler.process(samples, mono, resampled);
+
+        boolean bigEndian = format.isBigEndian();
+        for (int i = 0, at = 0; i < out; i++, at += 2) {
+            int s = Math.round(converted[i] * 32768f);
+            s = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, s));
+            pending[at] = (byte) (bigEndian ? s >> 8 : s);
+            pending[at + 1] = (byte) (bigEndian ? s : s >> 8);
+        }
+        pendingStart = 0;
+        pendingEnd = out * 2;
+        return true;
+    }
+}
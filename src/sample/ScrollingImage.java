@@ -0,0 +1,92 @@
+package sample;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * An image that scrolls left one column at a time, like a strip chart.
+ *
+ * Columns are pushed from any thread into a ring of ARGB pixels. On the FX thread,
+ * {@link #paint(GraphicsContext)} uploads only the columns pushed since the last frame and draws
+ * the ring in two pieces, oldest column on the left. Nothing is cleared when the ring wraps, new
+ * columns overwrite the oldest.
+ *
+ * @author naiemk
+ */
+public class ScrollingImage {
+    private static final PixelFormat<IntBuffer> ARGB = PixelFormat.getIntArgbInstance();
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private final WritableImage image;
+    private int head;
+    private int dirty;
+
+    public ScrollingImage(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+        this.image = new WritableImage(width, height);
+        Arrays.fill(pixels, 0xff000000);
+        image.getPixelWriter().setPixels(0, 0, width, height, ARGB, pixels, 0, width);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Appends a column, {@code column[0]} is the top pixel. The array can be reused right away.
+     */
+    public synchronized void push(int[] column) {
+        for (int y = 0, at = head; y < height; y++, at += width) {
+            pixels[at] = column[y];
+        }
+        head = (head + 1) % width;
+        dirty = Math.min(width, dirty + 1);
+    }
+
+    /**
+     * Draws the image on the FX thread.
+     *
+     * @return false if nothing changed since the last paint, and nothing was drawn.
+     */
+    public boolean paint(GraphicsContext g) {
+        int oldest;
+        synchronized (this) {
+            if (dirty == 0) {
+                return false;
+            }
+            int from = head - dirty;
+            if (from < 0) {
+                upload(from + width, width);
+                upload(0, head);
+            } else {
+                upload(from, head);
+            }
+            dirty = 0;
+            oldest = head;
+        }
+        int older = width - oldest;
+        g.drawImage(image, oldest, 0, older, height, 0, 0, older, height);
+        if (oldest > 0) {
+            g.drawImage(image, 0, 0, oldest, height, older, 0, oldest, height);
+        }
+        return true;
+    }
+
+    private void upload(int from, int to) {
+        if (to > from) {
+            image.getPixelWriter().setPixels(from, 0, to - from, height, ARGB, pixels, from, width);
+        }
+    }
+}
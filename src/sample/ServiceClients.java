@@ -0,0 +1,88 @@
+package sample;
+
+import com.ibm.watson.developer_cloud.speech_to_text.v1.SpeechToText;
+import com.ibm.watson.developer_cloud.text_to_speech.v1.TextToSpeech;
+import com.ibm.watson.developer_cloud.text_to_speech.v1.model.Voice;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service clients shared by every dialogue in the process.
+ *
+ * Both clients keep their connections in one pool, so a connection opened by {@link #warmUp()}
+ * or an earlier session is still open when the next session needs it.
+ *
+ * @author naiemk
+ */
+public class ServiceClients {
+    private static final ConnectionPool connections = new ConnectionPool(8, 5, TimeUnit.MINUTES);
+
+    private static TextToSpeech textToSpeech;
+    private static SpeechToText speechToText;
+    private static ReplyCache replyCache;
+
+    private ServiceClients() {
+    }
+
+    public static synchronized TextToSpeech textToSpeech() {
+        if (textToSpeech == null) {
+            textToSpeech = new TextToSpeech() {
+                @Override
+                protected OkHttpClient configureHttpClient() {
+                    return pooled(super.configureHttpClient());
+                }
+            };
+            textToSpeech.setUsernameAndPassword(System.getenv(DialogueService.BLUE_MIX_TTS_UN),
+                    System.getenv(DialogueService.BLUE_MIX_TTS_PW));
+        }
+        return textToSpeech;
+    }
+
+    public static synchronized SpeechToText speechToText() {
+        if (speechToText == null) {
+            speechToText = new SpeechToText() {
+                @Override
+                protected OkHttpClient configureHttpClient() {
+                    return pooled(super.configureHttpClient());
+                }
+            };
+            speechToText.setUsernameAndPassword(System.getenv(DialogueService.BLUE_MIX_STT_UN),
+                    System.getenv(DialogueService.BLUE_MIX_STT_PW));
+        }
+        return speechToText;
+    }
+
+    /**
+     * Synthesized replies, kept across sessions.
+     */
+    public static synchronized ReplyCache replyCache() {
+        if (replyCache == null) {
+            replyCache = new ReplyCache(textToSpeech(), Voice.EN_LISA,
+                    com.ibm.watson.developer_cloud.text_to_speech.v1.model.AudioFormat.WAV);
+        }
+        return replyCache;
+    }
+
+    /**
+     * Opens connections to the services in the background, so the first session does not pay
+     * for DNS and TLS handshakes.
+     */
+    public static CompletableFuture<Void> warmUp() {
+        CompletableFuture<Void> tts = CompletableFuture.runAsync(() -> textToSpeech().getVoices().execute(), Lane.IO);
+        CompletableFuture<Void> stt = SpeechRecognizer.isLocal()
+                ? CompletableFuture.completedFuture(null)
+                : CompletableFuture.runAsync(() -> speechToText().getModels().execute(), Lane.IO);
+        return CompletableFuture.allOf(tts, stt).whenComplete((v, e) -> {
+            if (e != null) {
+                System.out.println("Warming up service connections failed: " + e.getCause());
+            }
+        });
+    }
+
+    private static OkHttpClient pooled(OkHttpClient client) {
+        return client.newBuilder().connectionPool(connections).build();
+    }
+}
@@ -0,0 +1,171 @@
+package sample;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a file written by {@link SessionRecorder}: its audio as a stream and its events as a list.
+ *
+ * @author naiemk
+ */
+public class SessionReader {
+    private final AudioFormat format;
+    private final int frameBytes;
+    private final long startedAtMillis;
+    private final MappedByteBuffer records;
+    private final List<Recorded<Recognition>> recognitions = new ArrayList<>();
+    private final List<Recorded<String>> replies = new ArrayList<>();
+    private long audioBytes;
+
+    public SessionReader(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (records.getInt() != SessionRecorder.MAGIC) {
+            throw new IOException(file + " is not a recorded session.");
+        }
+        float sampleRate = records.getFloat();
+        int bits = records.getInt();
+        int channels = records.getInt();
+        boolean bigEndian = records.get() == 1;
+        format = new AudioFormat(sampleRate, bits, channels, true, bigEndian);
+        frameBytes = records.getInt();
+        startedAtMillis = records.getLong();
+        records.mark();
+
+        while (records.hasRemaining()) {
+            byte type = records.get();
+            long nanos = records.getLong();
+            long frame = records.getLong();
+            int length = records.getInt();
+            if (type == SessionRecorder.AUDIO) {
+                audioBytes += length;
+                records.position(records.position() + length);
+                continue;
+            }
+
+            byte[] payload = new byte[length];
+            records.get(payload);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            if (type == SessionRecorder.RECOGNITION) {
+                int utterance = in.readInt();
+                boolean isFinal = in.readBoolean();
+                String transcript = in.readUTF();
+                Map<String, Double> keywords = new HashMap<>();
+                for (int k = in.readInt(); k > 0; k--) {
+                    keywords.put(in.readUTF(), in.readDouble());
+                }
+                recognitions.add(new Recorded<>(nanos, frame, new Recognition(utterance, transcript, isFinal, keywords)));
+            } else if (type == SessionRecorder.REPLY) {
+                replies.add(new Recorded<>(nanos, frame, in.readUTF()));
+            }
+        }
+        records.reset();
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public int getFrameBytes() {
+        return frameBytes;
+    }
+
+    public long getStartedAtMillis() {
+        return startedAtMillis;
+    }
+
+    public double getAudioSeconds() {
+        return audioBytes / (double) format.getFrameSize() / format.getFrameRate();
+    }
+
+    public List<Recorded<Recognition>> getRecognitions() {
+        return recognitions;
+    }
+
+    public List<Recorded<String>> getReplies() {
+        return replies;
+    }
+
+    /**
+     * The recorded audio, frame after frame, straight from the mapped file.
+     */
+    public InputStream audio() {
+        ByteBuffer all = records.duplicate();
+        return new InputStream() {
+            private int left;
+
+            @Override
+            public int read() {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                while (left == 0) {
+                    if (!all.hasRemaining()) {
+                        return -1;
+                    }
+                    byte type = all.get();
+                    all.position(all.position() + 16);
+                    int length = all.getInt();
+                    if (type == SessionRecorder.AUDIO) {
+                        left = length;
+                    } else {
+                        all.position(all.position() + length);
+                    }
+                }
+                int n = Math.min(len, left);
+                all.get(b, off, n);
+                left -= n;
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Something that happened during the session, and when.
+     */
+    public static class Recorded<T> {
+        private final long nanos;
+        private final long frame;
+        private final T value;
+
+        Recorded(long nanos, long frame, T value) {
+            this.nanos = nanos;
+            this.frame = frame;
+            this.value = value;
+        }
+
+        /**
+         * Since the recording started.
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * Bus frames captured when it happened.
+         */
+        public long getFrame() {
+            return frame;
+        }
+
+        public T getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package sample;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Writes everything a session heard and said to an append-only, memory-mapped file that
+ * {@link SessionReplay} can play back later.
+ *
+ * The file starts with a header: {@link #MAGIC}, sample rate (float), bits per sample, channels,
+ * 1 if big endian (byte), frame size in bytes of the bus and the wall clock start (long). Then
+ * come records: type (byte), nanoseconds since the start (long), bus frames captured up to then
+ * (long), payload length (int) and the payload. Audio payloads are the raw frames; recognitions
+ * and replies are written with {@link DataOutputStream}.
+ *
+ * @author naiemk
+ */
+public class SessionRecorder implements AutoCloseable {
+    public static final String RECORD_DIR_ENV = "BLUELOGUE_RECORD_DIR";
+    public static final int MAGIC = 0x424c5331;
+    public static final byte AUDIO = 1;
+    public static final byte RECOGNITION = 2;
+    public static final byte REPLY = 3;
+
+    private static final int REGION_BYTES = 8 * 1024 * 1024;
+    private static final int RECORD_HEADER_BYTES = 1 + 8 + 8 + 4;
+
+    private final File file;
+    private final FileChannel channel;
+    private final long startedAt = System.nanoTime();
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long written;
+    private boolean closed;
+
+    private AudioBus bus;
+    private AudioBus.Subscription frames;
+    private long firstFrame;
+
+    public SessionRecorder(File file, AudioFormat format, int frameBytes) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer header = reserve(4 + 4 + 4 + 4 + 1 + 4 + 8);
+        header.putInt(MAGIC);
+        header.putFloat(format.getSampleRate());
+        header.putInt(format.getSampleSizeInBits());
+        header.putInt(format.getChannels());
+        header.put((byte) (format.isBigEndian() ? 1 : 0));
+        header.putInt(frameBytes);
+        header.putLong(System.currentTimeMillis());
+    }
+
+    /**
+     * A recorder for the session if {@value #RECORD_DIR_ENV} is set, otherwise null.
+     */
+    public static SessionRecorder fromEnvironment(AudioBus bus) {
+        String dir = System.getenv(RECORD_DIR_ENV);
+        if (dir == null) {
+            return null;
+        }
+        try {
+            File directory = new File(dir);
+            directory.mkdirs();
+            File file = new File(directory, "session-" + System.currentTimeMillis() + ".bls");
+            System.out.println("Recording session to " + file);
+            return new SessionRecorder(file, bus.getFormat(), bus.getFrameBytes()).capture(bus);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Records every frame of the bus from now on, on the DSP lane.
+     */
+    public SessionRecorder capture(AudioBus bus) {
+        this.bus = bus;
+        AudioBus.Subscription subscription = bus.subscribe();
+        this.frames = subscription;
+        firstFrame = bus.getPublished();
+        Lane.DSP.execute(() -> {
+            byte[] frame = new byte[bus.getFrameBytes()];
+            try (AudioBus.Subscription s = subscription) {
+                int n;
+                while ((n = s.read(frame, 0)) >= 0) {
+                    append(AUDIO, frame, n);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | UncheckedIOException e) {
+                e.printStackTrace();
+            }
+        });
+        return this;
+    }
+
+    public void recordRecognition(Recognition recognition) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(recognition.getUtterance());
+            out.writeBoolean(recognition.isFinal());
+            out.writeUTF(recognition.getTranscript());
+            out.writeInt(recognition.getKeywords().size());
+            for (Map.Entry<String, Double> keyword : recognition.getKeywords().entrySet()) {
+                out.writeUTF(keyword.getKey());
+                out.writeDouble(keyword.getValue());
+            }
+            append(RECOGNITION, bytes.toByteArray(), bytes.size());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void recordReply(String reply) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(reply);
+            append(REPLY, bytes.toByteArray(), bytes.size());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops capturing, flushes the file and cuts it to what was written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // The bus may live on after the session, like the microphone of the UI does.
+        if (frames != null) {
+            frames.close();
+        }
+        if (region != null) {
+            region.force();
+        }
+        region = null;
+        channel.truncate(written);
+        channel.close();
+    }
+
+    private synchronized void append(byte type, byte[] payload, int length) throws IOException {
+        if (closed) {
+            return;
+        }
+        long frame = bus == null ? 0 : bus.getPublished() - firstFrame;
+        MappedByteBuffer out = reserve(RECORD_HEADER_BYTES + length);
+        out.put(type);
+        out.putLong(System.nanoTime() - startedAt);
+        out.putLong(frame);
+        out.putInt(length);
+        out.put(payload, 0, length);
+    }
+
+    /**
+     * The mapped region to write the next {@code bytes} to, mapping a new one when this one is full.
+     */
+    private MappedByteBuffer reserve(int bytes) throws IOException {
+        if (region == null || region.remaining() < bytes) {
+            regionStart = written;
+            region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(REGION_BYTES, bytes));
+        }
+        written += bytes;
+        return region;
+    }
+}
@@ -0,0 +1,134 @@
+package sample;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Function;
+
+/**
+ * Runs a recorded session, or a WAV file, through the dialogue pipeline as fast as it can go.
+ *
+ * Recorded sessions get their hypotheses from a {@link ReplayRecognizer}, WAV files go to the local
+ * {@link KeywordSpotter}. Replies are silence unless {@code --tts} is given, and are thrown away.
+ * Reply cooldowns run on audio time: the frame a recorded hypothesis arrived at, or the frames the
+ * spotter has read, never how far capture ran ahead. So a replay makes the same decisions at any
+ * speed. Prints the speed, the replies next to the recorded ones and the latency summary, and exits with 1 if the
+ * replies of a recorded session came out different.
+ *
+ * Usage: {@code SessionReplay <session.bls | audio.wav> <dialogue file> [--tts]}
+ *
+ * @author naiemk
+ */
+public class SessionReplay {
+    private static final int STAND_IN_MILLIS_PER_WORD = 60;
+    private static final long IDLE_POLL_MILLIS = 5;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: SessionReplay <session.bls | audio.wav> <dialogue file> [--tts]");
+            System.exit(2);
+        }
+        File input = new File(args[0]);
+        String dialog = new String(Files.readAllBytes(new File(args[1]).toPath()), StandardCharsets.UTF_8);
+        boolean tts = args.length > 2 && "--tts".equals(args[2]);
+
+        SessionReader session = null;
+        AudioBus bus;
+        if (input.getName().endsWith(".wav")) {
+            bus = new AudioBus(wave(input), Recorder.AUDIO_FORMAT, AudioBus.FRAME_BYTES, AudioBus.SLOTS);
+        } else {
+            session = new SessionReader(input);
+            bus = new AudioBus(session.audio(), session.getFormat(), session.getFrameBytes(), AudioBus.SLOTS);
+        }
+        bus.lossless();
+
+        ReplayRecognizer replayed = session == null ? null : new ReplayRecognizer(bus, session.getRecognitions());
+        SpeechRecognizer recognizer = replayed == null ? new KeywordSpotter() : replayed;
+        Function<String, AudioInputStream> replies = tts ? ServiceClients.replyCache()::stream : SessionReplay::standIn;
+        DialogueService service = new DialogueService(dialog, recognizer, replies, new NullSink());
+
+        AudioFormat format = bus.getFormat();
+        long nanosPerFrame = (long) (1e9 * bus.getFrameBytes() / format.getFrameSize() / format.getFrameRate());
+        if (replayed != null) {
+            service.useClock(() -> replayed.getFrame() * nanosPerFrame);
+        } else {
+            service.useClock(() -> {
+                VadGate uplink = service.getUplink();
+                return uplink == null ? 0 : uplink.getReadFrames() * nanosPerFrame;
+            });
+        }
+        List<String> played = Collections.synchronizedList(new ArrayList<>());
+        service.onReply(played::add);
+
+        CountDownLatch ended = new CountDownLatch(1);
+        bus.onEnd(ended::countDown);
+        CancellationToken cancellation = new CancellationToken(false);
+        long started = System.nanoTime();
+        CompletableFuture<Void> done = service.start(bus, cancellation);
+        bus.start();
+
+        ended.await();
+        if (replayed != null) {
+            replayed.done().join();
+        }
+        while (!service.getPlayback().isIdle()) {
+            Thread.sleep(IDLE_POLL_MILLIS);
+        }
+        long took = System.nanoTime() - started;
+        cancellation.cancel();
+        done.join();
+
+        double audioSeconds = bus.getPublished() * nanosPerFrame / 1e9;
+        System.out.println(String.format("Replayed %.1f s of audio in %.2f s (%.0fx real time), %.0f frames/s",
+                audioSeconds, took / 1e9, audioSeconds / (took / 1e9), bus.getPublished() / (took / 1e9)));
+
+        boolean same = true;
+        if (session != null) {
+            List<SessionReader.Recorded<String>> recorded = session.getReplies();
+            System.out.println("Replies: " + recorded.size() + " recorded, " + played.size() + " replayed");
+            for (int i = 0; i < Math.max(recorded.size(), played.size()); i++) {
+                String was = i < recorded.size() ? recorded.get(i).getValue() : null;
+                String is = i < played.size() ? played.get(i) : null;
+                if (was == null || !was.equals(is)) {
+                    same = false;
+                    System.out.println("  " + i + ": recorded \"" + was + "\", replayed \"" + is + "\"");
+                }
+            }
+        } else {
+            System.out.println("Replies: " + played);
+        }
+        System.out.println(Metrics.summary());
+        System.exit(same ? 0 : 1);
+    }
+
+    static InputStream wave(File file) throws IOException, UnsupportedAudioFileException {
+        AudioInputStream in = AudioSystem.getAudioInputStream(file);
+        AudioFormat format = in.getFormat();
+        if (format.getSampleRate() != Recorder.AUDIO_FORMAT.getSampleRate() || format.getChannels() != 1) {
+            throw new IOException(file + " must be " + Recorder.AUDIO_FORMAT + ", it is " + format);
+        }
+        return AudioSystem.getAudioInputStream(Recorder.AUDIO_FORMAT, in);
+    }
+
+    /**
+     * Silence about as long as the reply would take to say.
+     */
+    private static AudioInputStream standIn(String reply) {
+        AudioFormat format = Recorder.AUDIO_FORMAT;
+        int words = reply.trim().isEmpty() ? 0 : reply.trim().split("\\s+").length;
+        int frames = (int) (format.getFrameRate() * STAND_IN_MILLIS_PER_WORD * words / 1000);
+        return new AudioInputStream(new ByteArrayInputStream(new byte[frames * format.getFrameSize()]), format, frames);
+    }
+}
@@ -0,0 +1,70 @@
+package sample;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.io.IOException;
+
+/**
+ * Plays on the default {@link SourceDataLine}, reopened only when the format changes.
+ *
+ * @author naiemk
+ */
+public class SpeakerSink implements AudioSink {
+    private static final int LINE_BUFFER_MILLIS = 100;
+
+    private volatile SourceDataLine line;
+
+    @Override
+    public void open(AudioFormat format) throws IOException {
+        SourceDataLine current = line;
+        if (current == null || !current.getFormat().matches(format)) {
+            if (current != null) {
+                current.close();
+            }
+            try {
+                current = AudioSystem.getSourceDataLine(format);
+                current.open(format, (int) (format.getFrameRate() * LINE_BUFFER_MILLIS / 1000) * format.getFrameSize());
+            } catch (LineUnavailableException e) {
+                throw new IOException("Error opening speaker line.", e);
+            }
+            line = current;
+        }
+        current.start();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        line.write(b, off, len);
+    }
+
+    @Override
+    public void drain() {
+        line.drain();
+    }
+
+    @Override
+    public void discard() {
+        SourceDataLine current = line;
+        if (current != null) {
+            current.stop();
+            current.flush();
+        }
+    }
+
+    @Override
+    public boolean isActive() {
+        SourceDataLine current = line;
+        return current != null && current.isActive();
+    }
+
+    @Override
+    public void close() {
+        SourceDataLine current = line;
+        line = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package sample;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Measures time and heap allocation per audio chunk of the spectrogram path: framing into
+ * overlapping Hann windowed frames as {@link Recorder} does, then the transform of every frame.
+ * Run with {@code java sample.SpectrumBenchmark [chunks]}; steady state should allocate 0 bytes.
+ *
+ * @author naiemk
+ */
+public class SpectrumBenchmark {
+    private static final int CHUNK = AudioBus.FRAME_BYTES / Recorder.AUDIO_FORMAT.getFrameSize();
+
+    public static void main(String[] args) {
+        int chunks = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        float[] samples = new float[CHUNK];
+        Random random = new Random(42);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) (Math.sin(i * 0.05) * 0.5 + random.nextGaussian() * 0.05);
+        }
+
+        Stft stft = new Stft();
+        Framer framer = new Framer(Recorder.DEFAULT_FRAME, Recorder.DEFAULT_HOP, Framer.Window.HANN);
+        float[] frame = new float[Recorder.DEFAULT_FRAME];
+        double[] sink = new double[1];
+        Consumer<MicData> transform = d -> {
+            d.windowTo(frame);
+            int bins = stft.transform(frame, frame.length);
+            sink[0] += stft.getAmplitudes()[bins / 3] / stft.getMax();
+        };
+
+        // Warm up so the JIT is done and the buffers exist.
+        for (int i = 0; i < chunks / 10; i++) {
+            framer.push(samples, samples.length, transform);
+        }
+
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < chunks; i++) {
+            framer.push(samples, samples.length, transform);
+        }
+        long nanos = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+        double audioSeconds = (double) chunks * CHUNK / Recorder.AUDIO_FORMAT.getSampleRate();
+        System.out.printf("chunks: %d (%.0f s of audio), %.0f ns/chunk, %.1f bytes/chunk, %.0f allocated bytes/s of audio%n",
+                chunks, audioSeconds, (double) nanos / chunks, (double) bytes / chunks, bytes / audioSeconds);
+        System.out.println("(checksum " + sink[0] + ")");
+    }
+}
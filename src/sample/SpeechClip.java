@@ -0,0 +1,30 @@
+package sample;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Decoded PCM of one synthesized reply, ready to be written to a line.
+ *
+ * @author naiemk
+ */
+public class SpeechClip {
+    private final AudioFormat format;
+    private final byte[] pcm;
+
+    public SpeechClip(AudioFormat format, byte[] pcm) {
+        this.format = format;
+        this.pcm = pcm;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public byte[] getPcm() {
+        return pcm;
+    }
+
+    public int size() {
+        return pcm.length;
+    }
+}
@@ -0,0 +1,50 @@
+package sample;
+
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Turns a stream of {@link Recorder#AUDIO_FORMAT} audio into {@link Recognition}s.
+ *
+ * @author naiemk
+ */
+public interface SpeechRecognizer {
+    String ENGINE_ENV = "BLUELOGUE_RECOGNIZER";
+
+    /**
+     * Starts recognizing the audio in the background, looking out for the given keywords.
+     */
+    void start(InputStream audio, Collection<String> keywords, Consumer<Recognition> listener);
+
+    /**
+     * Stops delivering recognitions. Closing the audio stream is left to its owner.
+     */
+    void stop();
+
+    /**
+     * Looks out for these keywords from now on, without restarting recognition. Recognizers that
+     * cannot change them mid-stream pick them up the next time they connect.
+     */
+    default void updateKeywords(Collection<String> keywords) {
+    }
+
+    /**
+     * Completes once the recognizer is taking in audio.
+     */
+    default CompletableFuture<Void> listening() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * The engine selected by the {@value #ENGINE_ENV} environment variable, Watson unless it is "local".
+     */
+    static SpeechRecognizer fromEnvironment() {
+        return isLocal() ? new KeywordSpotter() : new WatsonRecognizer();
+    }
+
+    static boolean isLocal() {
+        return "local".equalsIgnoreCase(System.getenv(ENGINE_ENV));
+    }
+}
@@ -0,0 +1,83 @@
+package sample;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short time Fourier transform of audio frames into log amplitudes.
+ *
+ * FFT plans are built once per frame size and shared, work buffers belong to the instance and
+ * are only reallocated when the frame size changes, so steady state transforms allocate nothing.
+ * An instance is meant to be used from one thread.
+ *
+ * @author naiemk
+ */
+public class Stft {
+    private static final Map<Integer, FloatFFT_1D> plans = new ConcurrentHashMap<>();
+
+    private FloatFFT_1D plan;
+    private float[] work = new float[0];
+    private double[] amplitudes = new double[0];
+    private int bins;
+    private double max;
+
+    /**
+     * The shared FFT plan for the given size.
+     */
+    public static FloatFFT_1D plan(int size) {
+        FloatFFT_1D plan = plans.get(size);
+        return plan != null ? plan : plans.computeIfAbsent(size, FloatFFT_1D::new);
+    }
+
+    /**
+     * Computes log(1 + |X|) of the first half of the spectrum of {@code samples[0, length)}.
+     * The length has to be even.
+     *
+     * @return number of bins, available through {@link #getAmplitudes()}.
+     */
+    public int transform(float[] samples, int length) {
+        if (length % 2 != 0) {
+            throw new IllegalArgumentException("Frame length must be even: " + length);
+        }
+        if (work.length != length) {
+            plan = plan(length);
+            work = new float[length];
+            amplitudes = new double[length / 2];
+        }
+        System.arraycopy(samples, 0, work, 0, length);
+        plan.realForward(work);
+
+        bins = amplitudes.length;
+        max = 0;
+        // realForward keeps Re[0] in the first slot and packs Re[k], Im[k] in pairs after it.
+        double amp = Math.log(1 + Math.abs(work[0]));
+        amplitudes[0] = amp;
+        max = Math.max(max, amp);
+        for (int k = 1; k < bins; k++) {
+            float re = work[2 * k];
+            float im = work[2 * k + 1];
+            amp = Math.log(1 + Math.sqrt(re * re + im * im));
+            amplitudes[k] = amp;
+            max = Math.max(max, amp);
+        }
+
+        return bins;
+    }
+
+    /**
+     * Amplitudes of the last transform. The array is reused by the next one.
+     */
+    public double[] getAmplitudes() {
+        return amplitudes;
+    }
+
+    public int getBins() {
+        return bins;
+    }
+
+    public double getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,103 @@
+package sample;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends replies to a remote caller, paced as if they were played here.
+ *
+ * Audio goes out in chunks, each with a header: sample rate (int), channels (byte), bits per
+ * sample (byte), 1 if big endian (byte), then the length (int) of the signed PCM that follows.
+ * A chunk of length 0 tells the caller to drop the audio it has buffered, the user barged in.
+ * Writes only run {@link #LEAD_MILLIS} ahead of real time so barge-in cuts a reply off quickly.
+ *
+ * @author naiemk
+ */
+public class StreamSink implements AudioSink {
+    public static final int LEAD_MILLIS = 100;
+
+    private final DataOutputStream out;
+    private AudioFormat format;
+    private volatile long playedUntil;
+    private volatile boolean discarded;
+
+    public StreamSink(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    @Override
+    public void open(AudioFormat format) {
+        this.format = format;
+        discarded = false;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long now = System.nanoTime();
+        long start = Math.max(now, playedUntil);
+        long lead = TimeUnit.MILLISECONDS.toNanos(LEAD_MILLIS);
+        while (start - now > lead && !discarded) {
+            LockSupport.parkNanos(start - now - lead);
+            now = System.nanoTime();
+        }
+        if (discarded) {
+            return;
+        }
+
+        synchronized (out) {
+            out.writeInt((int) format.getSampleRate());
+            out.writeByte(format.getChannels());
+            out.writeByte(format.getSampleSizeInBits());
+            out.writeByte(format.isBigEndian() ? 1 : 0);
+            out.writeInt(len);
+            out.write(b, off, len);
+            out.flush();
+        }
+        long frames = len / Math.max(1, format.getFrameSize());
+        playedUntil = Math.max(System.nanoTime(), playedUntil) + (long) (frames * 1e9 / format.getFrameRate());
+    }
+
+    @Override
+    public void drain() {
+        long now;
+        while (!discarded && (now = System.nanoTime()) < playedUntil) {
+            LockSupport.parkNanos(playedUntil - now);
+        }
+    }
+
+    @Override
+    public void discard() {
+        discarded = true;
+        playedUntil = System.nanoTime();
+        try {
+            synchronized (out) {
+                out.writeInt(0);
+                out.writeByte(0);
+                out.writeByte(0);
+                out.writeByte(0);
+                out.writeInt(0);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The caller is gone, nothing to drop.
+        }
+    }
+
+    @Override
+    public boolean isActive() {
+        return System.nanoTime() < playedUntil;
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
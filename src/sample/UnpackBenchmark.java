@@ -0,0 +1,91 @@
+package sample;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Random;
+
+/**
+ * Compares {@link Recorder#unpack} against the generic decoder for the formats that have a
+ * fast path, in samples per second. Run with {@code java sample.UnpackBenchmark [seconds]};
+ * it exits with status 1 if a fast path decodes differently or slower than the generic one.
+ *
+ * @author naiemk
+ */
+public class UnpackBenchmark {
+    private static final int CHUNK_SAMPLES = 4096;
+
+    private static final AudioFormat[] FORMATS = {
+            Recorder.AUDIO_FORMAT,
+            new AudioFormat(48000f, 16, 1, true, false),
+            new AudioFormat(48000f, 24, 1, true, false),
+            new AudioFormat(8000f, 8, 1, false, false),
+            new AudioFormat(8000f, 8, 1, true, false),
+    };
+
+    private interface Decoder {
+        float[] decode(byte[] bytes, long[] transfer, float[] samples, int bvalid, AudioFormat fmt);
+    }
+
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        boolean ok = true;
+
+        System.out.printf("%-24s %14s %14s %8s%n", "format", "generic/s", "fast/s", "speedup");
+        for (AudioFormat format : FORMATS) {
+            int bytesPerSample = Recorder.normalBytesFromBits(format.getSampleSizeInBits());
+            byte[] bytes = new byte[CHUNK_SAMPLES * bytesPerSample];
+            new Random(7).nextBytes(bytes);
+            long[] transfer = new long[CHUNK_SAMPLES];
+            float[] generic = new float[CHUNK_SAMPLES];
+            float[] fast = new float[CHUNK_SAMPLES];
+
+            Recorder.unpackGeneric(bytes, transfer, generic, bytes.length, format);
+            Recorder.unpack(bytes, transfer, fast, bytes.length, format);
+            for (int i = 0; i < CHUNK_SAMPLES; i++) {
+                if (Float.floatToIntBits(generic[i]) != Float.floatToIntBits(fast[i])) {
+                    System.out.println(format + ": sample " + i + " decodes to " + fast[i] + " instead of " + generic[i]);
+                    ok = false;
+                    break;
+                }
+            }
+
+            double genericRate = rate(Recorder::unpackGeneric, bytes, transfer, generic, format, seconds);
+            double fastRate = rate(Recorder::unpack, bytes, transfer, fast, format, seconds);
+            System.out.printf("%-24s %14.0f %14.0f %7.1fx%n", label(format), genericRate, fastRate, fastRate / genericRate);
+            ok &= fastRate >= genericRate;
+        }
+
+        if (!ok) {
+            System.out.println("Fast path regression.");
+            System.exit(1);
+        }
+    }
+
+    private static String label(AudioFormat format) {
+        return format.getSampleSizeInBits() + "-bit "
+                + (format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED ? "signed" : "unsigned")
+                + (format.getSampleSizeInBits() > 8 ? format.isBigEndian() ? " BE" : " LE" : "");
+    }
+
+    private static double rate(Decoder decoder, byte[] bytes, long[] transfer, float[] samples,
+                               AudioFormat format, double seconds) {
+        long budget = (long) (seconds * 1e9);
+        // Warm up for a third of the budget, then measure.
+        run(decoder, bytes, transfer, samples, format, budget / 3);
+        long start = System.nanoTime();
+        long chunks = run(decoder, bytes, transfer, samples, format, budget);
+        return chunks * (double) CHUNK_SAMPLES / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static long run(Decoder decoder, byte[] bytes, long[] transfer, float[] samples,
+                            AudioFormat format, long nanos) {
+        long end = System.nanoTime() + nanos;
+        long chunks = 0;
+        do {
+            for (int i = 0; i < 64; i++) {
+                decoder.decode(bytes, transfer, samples, bytes.length, format);
+            }
+            chunks += 64;
+        } while (System.nanoTime() < end);
+        return chunks;
+    }
+}
@@ -0,0 +1,221 @@
+package sample;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Audio stream for the recognition uplink that only lets speech through.
+ *
+ * Frames from the bus are run through a {@link VoiceActivityDetector}. Silence is held back in a
+ * pre-roll ring and only sent when speech starts, so the onset of the first word is not clipped.
+ * While nothing is sent, a frame of digital silence goes out every {@link #KEEP_ALIVE_MILLIS} so
+ * the recognition session does not time out.
+ *
+ * @author naiemk
+ */
+public class VadGate extends InputStream {
+    public static final int DEFAULT_PRE_ROLL_MILLIS = 300;
+    public static final int DEFAULT_HANGOVER_MILLIS = 500;
+    public static final int KEEP_ALIVE_MILLIS = 15000;
+
+    private final AudioBus.Subscription frames;
+    private final AudioFormat format;
+    private final VoiceActivityDetector detector;
+    private final int frameMillis;
+
+    private final byte[][] preRoll;
+    private final int[] preRollLengths;
+    private int preRollStart;
+    private int preRollCount;
+
+    private final byte[] frame;
+    private final float[] samples;
+    private final long[] transfer;
+
+    // Bytes queued to be handed out: pre-roll first, then the frame that started the speech.
+    private int flushing = -1;
+    private int onsetLength;
+    private byte[] current;
+    private int position;
+    private int length;
+
+    private boolean speaking;
+    private int silentMillis;
+
+    private volatile long readFrames;
+    private volatile long forwardedFrames;
+    private volatile long suppressedFrames;
+    private volatile long keepAliveFrames;
+    private volatile long speechSegments;
+
+    public VadGate(AudioBus.Subscription frames, AudioFormat format, int frameBytes) {
+        this(frames, format, frameBytes, DEFAULT_PRE_ROLL_MILLIS, DEFAULT_HANGOVER_MILLIS);
+    }
+
+    public VadGate(AudioBus.Subscription frames, AudioFormat format, int frameBytes,
+                   int preRollMillis, int hangoverMillis) {
+        this.frames = frames;
+        this.format = format;
+        this.frameMillis = Math.max(1, (int) (1000L * frameBytes / format.getFrameSize() / format.getFrameRate()));
+        this.detector = new VoiceActivityDetector(hangoverMillis / frameMillis);
+
+        int preRollFrames = Math.max(0, (preRollMillis + frameMillis - 1) / frameMillis);
+        this.preRoll = new byte[preRollFrames][frameBytes];
+        this.preRollLengths = new int[preRollFrames];
+        this.frame = new byte[frameBytes];
+        this.samples = new float[frameBytes / format.getFrameSize() * format.getChannels()];
+        this.transfer = new long[samples.length];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        while (position == length) {
+            if (!next()) {
+                return -1;
+            }
+        }
+
+        int n = Math.min(len, length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() {
+        frames.close();
+    }
+
+    /**
+     * Frames taken from the bus so far, speech or not. It only moves as the reader reads.
+     */
+    public long getReadFrames() {
+        return readFrames;
+    }
+
+    public long getForwardedFrames() {
+        return forwardedFrames;
+    }
+
+    public long getSuppressedFrames() {
+        return suppressedFrames;
+    }
+
+    public long getSpeechSegments() {
+        return speechSegments;
+    }
+
+    public double getSuppressedSeconds() {
+        return suppressedFrames * frameMillis / 1000.0;
+    }
+
+    /**
+     * A one line summary of how much audio was kept off the uplink.
+     */
+    public String report() {
+        long total = forwardedFrames + suppressedFrames;
+        return String.format("Uplink: %d speech segments, forwarded %.1f s, suppressed %.1f s (%.0f%%), %d keep-alives",
+                speechSegments,
+                forwardedFrames * frameMillis / 1000.0,
+                getSuppressedSeconds(),
+                total == 0 ? 0.0 : 100.0 * suppressedFrames / total,
+                keepAliveFrames);
+    }
+
+    /**
+     * Moves the next bytes to hand out into {@code current}.
+     *
+     * @return false at the end of the stream.
+     */
+    private boolean next() throws IOException {
+        // Still emptying the pre-roll ring after speech started.
+        if (flushing >= 0) {
+            if (flushing < preRollCount) {
+                int slot = (preRollStart + flushing++) % preRoll.length;
+                serve(preRoll[slot], preRollLengths[slot]);
+                return true;
+            }
+            flushing = -1;
+            preRollCount = 0;
+            serve(frame, onsetLength);
+            return true;
+        }
+
+        int n;
+        try {
+            n = frames.read(frame, 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for audio.", e);
+        }
+        if (n < 0) {
+            return false;
+        }
+        readFrames++;
+
+        Recorder.unpack(frame, transfer, samples, n, format);
+        boolean speech = detector.isSpeech(samples, n / format.getFrameSize() * format.getChannels());
+
+        if (speech) {
+            Metrics.UPLINK.recordSince(frames.getCapturedAt());
+            forwardedFrames++;
+            silentMillis = 0;
+            if (!speaking) {
+                speaking = true;
+                speechSegments++;
+                forwardedFrames += preRollCount;
+                suppressedFrames -= preRollCount;
+                flushing = 0;
+                onsetLength = n;
+                position = length = 0;
+                return true;
+            }
+            serve(frame, n);
+            return true;
+        }
+
+        speaking = false;
+        suppressedFrames++;
+        silentMillis += frameMillis;
+        keepInPreRoll(n);
+
+        if (silentMillis >= KEEP_ALIVE_MILLIS) {
+            silentMillis = 0;
+            keepAliveFrames++;
+            Arrays.fill(frame, 0, n, (byte) 0);
+            serve(frame, n);
+        } else {
+            position = length = 0;
+        }
+        return true;
+    }
+
+    private void keepInPreRoll(int n) {
+        if (preRoll.length == 0) {
+            return;
+        }
+        int slot;
+        if (preRollCount < preRoll.length) {
+            slot = (preRollStart + preRollCount++) % preRoll.length;
+        } else {
+            slot = preRollStart;
+            preRollStart = (preRollStart + 1) % preRoll.length;
+        }
+        System.arraycopy(frame, 0, preRoll[slot], 0, n);
+        preRollLengths[slot] = n;
+    }
+
+    private void serve(byte[] bytes, int n) {
+        current = bytes;
+        position = 0;
+        length = n;
+    }
+}
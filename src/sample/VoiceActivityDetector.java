@@ -0,0 +1,110 @@
+package sample;
+
+/**
+ * Frame by frame speech detector.
+ *
+ * Each frame is scored on its energy against an adaptive noise floor, its zero crossing rate and
+ * the spectral flux from the previous frame. Loud frames are speech; frames only a little above the
+ * noise floor count when they look like fricatives (many zero crossings) or onsets (high flux).
+ * Speech is held for a hangover period so pauses between words do not cut a sentence up.
+ *
+ * @author naiemk
+ */
+public class VoiceActivityDetector {
+    private static final double ENERGY_MARGIN_DB = 9;
+    private static final double WEAK_MARGIN_DB = 3;
+    private static final double FLOOR_RISE_DB = 0.05;
+    private static final double MIN_ENERGY_DB = -90;
+    private static final double FRICATIVE_ZCR = 0.25;
+    private static final double ONSET_FLUX = 0.15;
+
+    private final int hangoverFrames;
+    private final Stft stft = new Stft();
+    private double[] previous = new double[0];
+
+    private double noiseFloor = Double.NaN;
+    private int hangover;
+
+    private double energyDb;
+    private double zeroCrossings;
+    private double flux;
+
+    public VoiceActivityDetector(int hangoverFrames) {
+        this.hangoverFrames = hangoverFrames;
+    }
+
+    /**
+     * Scores one frame of samples.
+     *
+     * @return true while in speech, including the hangover after it.
+     */
+    public boolean isSpeech(float[] samples, int length) {
+        double sum = 0;
+        int crossings = 0;
+        for (int i = 0; i < length; i++) {
+            sum += samples[i] * samples[i];
+            if (i > 0 && (samples[i] >= 0) != (samples[i - 1] >= 0)) {
+                crossings++;
+            }
+        }
+        energyDb = Math.max(MIN_ENERGY_DB, 10 * Math.log10(sum / Math.max(1, length) + 1e-12));
+        zeroCrossings = (double) crossings / Math.max(1, length - 1);
+        flux = spectralFlux(samples, length);
+
+        if (Double.isNaN(noiseFloor) || energyDb < noiseFloor) {
+            noiseFloor = energyDb;
+        } else {
+            noiseFloor += FLOOR_RISE_DB;
+        }
+
+        double aboveFloor = energyDb - noiseFloor;
+        boolean speechLike = aboveFloor > ENERGY_MARGIN_DB
+                || aboveFloor > WEAK_MARGIN_DB && (zeroCrossings > FRICATIVE_ZCR || flux > ONSET_FLUX);
+
+        if (speechLike) {
+            hangover = hangoverFrames;
+            return true;
+        }
+        if (hangover > 0) {
+            hangover--;
+            return true;
+        }
+        return false;
+    }
+
+    public double getEnergyDb() {
+        return energyDb;
+    }
+
+    public double getNoiseFloorDb() {
+        return noiseFloor;
+    }
+
+    public double getZeroCrossingRate() {
+        return zeroCrossings;
+    }
+
+    public double getSpectralFlux() {
+        return flux;
+    }
+
+    /**
+     * Positive change of the log spectrum since the last frame, relative to its total.
+     */
+    private double spectralFlux(float[] samples, int length) {
+        int bins = stft.transform(samples, length - length % 2);
+        double[] amplitudes = stft.getAmplitudes();
+        if (previous.length != bins) {
+            previous = new double[bins];
+        }
+
+        double rise = 0;
+        double total = 0;
+        for (int k = 0; k < bins; k++) {
+            rise += Math.max(0, amplitudes[k] - previous[k]);
+            total += amplitudes[k];
+            previous[k] = amplitudes[k];
+        }
+        return total > 0 ? rise / total : 0;
+    }
+}
@@ -0,0 +1,257 @@
+package sample;
+
+import com.ibm.watson.developer_cloud.http.HttpMediaType;
+import com.ibm.watson.developer_cloud.service.exception.ServiceResponseException;
+import com.ibm.watson.developer_cloud.speech_to_text.v1.SpeechToText;
+import com.ibm.watson.developer_cloud.speech_to_text.v1.model.KeywordsResult;
+import com.ibm.watson.developer_cloud.speech_to_text.v1.model.RecognizeOptions;
+import com.ibm.watson.developer_cloud.speech_to_text.v1.model.SpeechResults;
+import com.ibm.watson.developer_cloud.speech_to_text.v1.model.Transcript;
+import com.ibm.watson.developer_cloud.speech_to_text.v1.websocket.BaseRecognizeCallback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Recognizer backed by the Watson speech to text WebSocket.
+ *
+ * The WebSocket is kept open for as long as the audio lasts. When it drops, a new one is opened
+ * on the same audio after a short back-off. The service numbers utterances from 0 on every
+ * connection, so each connection starts past the highest number seen before and utterances keep
+ * counting up for the whole session. If the service cannot be reached at all, {@link #listening()}
+ * fails after {@value #MAX_FIRST_ATTEMPTS} attempts, or right away when it rejects the request.
+ *
+ * @author naiemk
+ */
+public class WatsonRecognizer implements SpeechRecognizer {
+    private static final long MIN_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    private static final int MAX_FIRST_ATTEMPTS = 5;
+
+    private static final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "recognizer-reconnect");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final SpeechToText speachToText;
+    private final CompletableFuture<Void> listening = new CompletableFuture<>();
+    private final Object audioLock = new Object();
+    private volatile boolean stopped;
+    private volatile boolean ended;
+    private volatile int connection;
+    private volatile long lastAudioAt;
+    private volatile RecognizeOptions options;
+    private long backoffMillis = MIN_BACKOFF_MILLIS;
+    private int reconnects;
+    private int failedAttempts;
+    private int highestUtterance = -1;
+
+    public WatsonRecognizer() {
+        this(ServiceClients.speechToText());
+    }
+
+    /**
+     * A recognizer on a client shared with other sessions, and with that its connection pool.
+     */
+    public WatsonRecognizer(SpeechToText speachToText) {
+        this.speachToText = speachToText;
+    }
+
+    @Override
+    public void start(InputStream audio, Collection<String> keywords, Consumer<Recognition> listener) {
+        updateKeywords(keywords);
+        int first;
+        synchronized (this) {
+            first = ++connection;
+        }
+        connect(first, 0, audio, listener);
+    }
+
+    /**
+     * Keywords are part of the WebSocket's start message, new ones apply from the next connection.
+     * The dialogue's own phrase matching picks them up right away.
+     */
+    @Override
+    public void updateKeywords(Collection<String> keywords) {
+        options = new RecognizeOptions.Builder()
+                .continuous(true)
+                .interimResults(true)
+                // Silence is not sent at all, so the session must not time out on it.
+                .inactivityTimeout(-1)
+                .contentType(HttpMediaType.AUDIO_FLAC)
+                .keywords(keywords.stream().toArray(String[]::new))
+                .keywordsThreshold(0.4)
+                .build();
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+
+    @Override
+    public CompletableFuture<Void> listening() {
+        return listening;
+    }
+
+    /**
+     * How often the WebSocket had to be opened again.
+     */
+    public synchronized int getReconnects() {
+        return reconnects;
+    }
+
+    private void connect(int current, int utteranceBase, InputStream audio, Consumer<Recognition> listener) {
+        // Lossless compression, speech goes up at roughly 60% of the raw 256 kbit/s. Every
+        // connection needs its own FLAC stream header.
+        InputStream flac = new FlacInputStream(new Lease(audio, current), Recorder.AUDIO_FORMAT);
+        speachToText.recognizeUsingWebSocket(flac, options, new BaseRecognizeCallback() {
+            @Override
+            public void onConnected() {
+                synchronized (WatsonRecognizer.this) {
+                    backoffMillis = MIN_BACKOFF_MILLIS;
+                }
+                listening.complete(null);
+            }
+
+            @Override
+            public void onTranscription(SpeechResults speechResults) {
+                if (!stopped && speechResults.getResults() != null) {
+                    if (lastAudioAt != 0) {
+                        Metrics.RECOGNITION.recordSince(lastAudioAt);
+                    }
+                    listener.accept(toRecognition(utteranceBase, speechResults));
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                System.out.println("Recognition connection failed: " + e);
+                reconnect(current, e, audio, listener);
+            }
+
+            @Override
+            public void onDisconnected() {
+                reconnect(current, null, audio, listener);
+            }
+        });
+    }
+
+    private void reconnect(int dropped, Exception error, InputStream audio, Consumer<Recognition> listener) {
+        long delay;
+        int next;
+        int utteranceBase;
+        synchronized (this) {
+            // Errors are usually followed by a disconnect, only the first one counts.
+            if (stopped || ended || dropped != connection) {
+                return;
+            }
+            if (!listening.isDone() && (rejected(error) || ++failedAttempts >= MAX_FIRST_ATTEMPTS)) {
+                stopped = true;
+                listening.completeExceptionally(error != null ? error
+                        : new IOException("Could not connect to speech to text after " + failedAttempts + " attempts."));
+                return;
+            }
+            // The dropped connection's audio ends right away, the next one takes over from here.
+            next = ++connection;
+            utteranceBase = highestUtterance + 1;
+            reconnects++;
+            Metrics.RECOGNITION_RECONNECTS.increment();
+            delay = backoffMillis;
+            backoffMillis = Math.min(MAX_BACKOFF_MILLIS, backoffMillis * 2);
+        }
+        reconnector.schedule(() -> {
+            if (!stopped) {
+                connect(next, utteranceBase, audio, listener);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The audio as seen by one connection. It ends once a newer connection took over, and
+     * closing it leaves the audio open for the next one.
+     */
+    private class Lease extends InputStream {
+        private final InputStream audio;
+        private final int owner;
+
+        Lease(InputStream audio, int owner) {
+            this.audio = audio;
+            this.owner = owner;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            synchronized (audioLock) {
+                if (stopped || owner != connection) {
+                    return -1;
+                }
+                int n = audio.read(b, off, len);
+                if (n < 0) {
+                    ended = true;
+                } else {
+                    lastAudioAt = System.nanoTime();
+                }
+                return n;
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A request the service turned down, like bad credentials, fails the same way every time.
+     */
+    private static boolean rejected(Exception error) {
+        if (!(error instanceof ServiceResponseException)) {
+            return false;
+        }
+        int status = ((ServiceResponseException) error).getStatusCode();
+        return status >= 400 && status < 500 && status != 429;
+    }
+
+    private Recognition toRecognition(int utteranceBase, SpeechResults speechResults) {
+        StringBuilder transcript = new StringBuilder();
+        Map<String, Double> keywords = new HashMap<>();
+        boolean isFinal = false;
+        for (Transcript t : speechResults.getResults()) {
+            isFinal |= t.isFinal();
+            if (t.getAlternatives() != null && !t.getAlternatives().isEmpty()) {
+                transcript.append(t.getAlternatives().get(0).getTranscript());
+            }
+            if (t.getKeywordsResult() != null) {
+                for (Map.Entry<String, List<KeywordsResult>> e : t.getKeywordsResult().entrySet()) {
+                    double confidence = e.getValue().stream()
+                            .mapToDouble(k -> k.getConfidence() == null ? 0 : k.getConfidence())
+                            .max()
+                            .orElse(0);
+                    keywords.merge(e.getKey(), confidence, Math::max);
+                }
+            }
+        }
+
+        int utterance = utteranceBase + speechResults.getResultIndex();
+        synchronized (this) {
+            highestUtterance = Math.max(highestUtterance, utterance);
+        }
+        return new Recognition(utterance, transcript.toString(), isFinal, keywords);
+    }
+}
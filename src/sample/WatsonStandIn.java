@@ -0,0 +1,484 @@
+package sample;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.ibm.watson.developer_cloud.speech_to_text.v1.SpeechToText;
+import com.ibm.watson.developer_cloud.text_to_speech.v1.TextToSpeech;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Speech to text and text to speech on the loopback interface, for load tests that must not
+ * depend on (or pay for) the real services.
+ *
+ * Speaks just enough HTTP and WebSocket for the Watson SDK: tokens, voices and models,
+ * {@code /v1/synthesize} answering with silence about as long as the text, and
+ * {@code /v1/recognize} hearing the next of the requested keywords every few seconds while
+ * audio keeps coming. Every answer is held back by the configured latency plus random jitter.
+ *
+ * @author naiemk
+ */
+public class WatsonStandIn implements AutoCloseable {
+    public static final String LATENCY_ENV = "BLUELOGUE_STANDIN_LATENCY_MS";
+    public static final String JITTER_ENV = "BLUELOGUE_STANDIN_JITTER_MS";
+    public static final long DEFAULT_LATENCY_MILLIS = 150;
+    public static final long DEFAULT_JITTER_MILLIS = 50;
+
+    private static final long UTTERANCE_MILLIS = 2000;
+    private static final int SYNTHESIS_MILLIS_PER_WORD = 300;
+    private static final AudioFormat SYNTHESIS_FORMAT = new AudioFormat(22050, 16, 1, true, false);
+    // Audio chunks and control messages are a few kilobytes, anything this big is a broken client.
+    private static final int MAX_FRAME_BYTES = 1 << 20;
+    private static final int CLOSE_TOO_BIG = 1009;
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final AtomicInteger threadIds = new AtomicInteger();
+    private final ThreadPoolExecutor connections;
+    private final ScheduledThreadPoolExecutor timers;
+    private ServerSocket server;
+
+    public WatsonStandIn(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.connections = (ThreadPoolExecutor) Executors.newCachedThreadPool(this::thread);
+        this.timers = new ScheduledThreadPoolExecutor(2, this::thread);
+    }
+
+    /**
+     * A stand-in with the latency and jitter from {@value #LATENCY_ENV} and {@value #JITTER_ENV}.
+     */
+    public static WatsonStandIn fromEnvironment() {
+        return new WatsonStandIn(millis(LATENCY_ENV, DEFAULT_LATENCY_MILLIS), millis(JITTER_ENV, DEFAULT_JITTER_MILLIS));
+    }
+
+    public synchronized WatsonStandIn start() throws IOException {
+        server = new ServerSocket(0, 256, InetAddress.getLoopbackAddress());
+        connections.execute(this::accept);
+        return this;
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public long getJitterMillis() {
+        return jitterMillis;
+    }
+
+    /**
+     * Threads the stand-in itself runs on, to tell them apart from the ones under test.
+     */
+    public int getThreads() {
+        return connections.getPoolSize() + timers.getPoolSize();
+    }
+
+    /**
+     * A speech to text client talking to this stand-in.
+     */
+    public SpeechToText speechToText() {
+        SpeechToText client = new SpeechToText() {
+            @Override
+            protected OkHttpClient configureHttpClient() {
+                return plain(super.configureHttpClient());
+            }
+        };
+        client.setEndPoint(endPoint("speech-to-text"));
+        client.setUsernameAndPassword("stand-in", "stand-in");
+        return client;
+    }
+
+    /**
+     * A text to speech client talking to this stand-in.
+     */
+    public TextToSpeech textToSpeech() {
+        TextToSpeech client = new TextToSpeech() {
+            @Override
+            protected OkHttpClient configureHttpClient() {
+                return plain(super.configureHttpClient());
+            }
+        };
+        client.setEndPoint(endPoint("text-to-speech"));
+        client.setUsernameAndPassword("stand-in", "stand-in");
+        return client;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        connections.shutdownNow();
+        timers.shutdownNow();
+    }
+
+    private String endPoint(String service) {
+        return "http://127.0.0.1:" + getPort() + "/" + service + "/api";
+    }
+
+    /**
+     * The SDK opens the recognize WebSocket as wss, the stand-in only speaks plain HTTP.
+     */
+    private static OkHttpClient plain(OkHttpClient client) {
+        return client.newBuilder().addInterceptor(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Request request = chain.request();
+                HttpUrl url = request.url();
+                if (url.isHttps() && "127.0.0.1".equals(url.host())) {
+                    request = request.newBuilder().url(url.newBuilder().scheme("http").build()).build();
+                }
+                return chain.proceed(request);
+            }
+        }).build();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                connections.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers HTTP requests on one keep-alive connection until it closes or turns into a WebSocket.
+     */
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            String requestLine;
+            while ((requestLine = readLine(in)) != null && !requestLine.isEmpty()) {
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon < 0) {
+                        continue;
+                    }
+                    headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                }
+                int length = Integer.parseInt(headers.getOrDefault("content-length", "0"));
+                in.readFully(new byte[length]);
+
+                String target = requestLine.split(" ")[1];
+                int query = target.indexOf('?');
+                String path = query < 0 ? target : target.substring(0, query);
+                Map<String, String> parameters = parameters(query < 0 ? "" : target.substring(query + 1));
+
+                if (path.endsWith("/v1/recognize") && "websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+                    new RecognizeSocket(in, out, headers.get("sec-websocket-key")).run();
+                    return;
+                } else if (path.endsWith("/v1/token")) {
+                    respond(out, "text/plain", "stand-in-token".getBytes(StandardCharsets.UTF_8));
+                } else if (path.endsWith("/v1/voices")) {
+                    respond(out, "application/json", "{\"voices\":[]}".getBytes(StandardCharsets.UTF_8));
+                } else if (path.endsWith("/v1/models")) {
+                    respond(out, "application/json", "{\"models\":[]}".getBytes(StandardCharsets.UTF_8));
+                } else if (path.endsWith("/v1/synthesize")) {
+                    sleep(delayMillis());
+                    respond(out, "audio/wav", synthesize(parameters.getOrDefault("text", "")));
+                } else {
+                    out.write(("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.flush();
+                }
+            }
+        } catch (SocketException e) {
+            // The client hung up.
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * One recognize WebSocket: waits for the start message, then hears a keyword every
+     * {@value #UTTERANCE_MILLIS} ms for as long as audio arrives, and says goodbye after stop.
+     */
+    private class RecognizeSocket implements Runnable {
+        private final DataInputStream in;
+        private final OutputStream out;
+        private final String key;
+        // Replaced as a whole on start, the timer thread reads it.
+        private volatile List<String> keywords = Collections.emptyList();
+        private volatile boolean audioSinceLastUtterance;
+        private int utterance;
+        private ScheduledFuture<?> utterances;
+
+        RecognizeSocket(DataInputStream in, OutputStream out, String key) {
+            this.in = in;
+            this.out = out;
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            try {
+                out.write(("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                        + "Sec-WebSocket-Accept: " + accept(key) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                while (true) {
+                    int first = in.readUnsignedByte();
+                    int opcode = first & 0x0f;
+                    byte[] payload = readPayload();
+                    if (opcode == 0x8) {
+                        send(0x8, new byte[0]);
+                        return;
+                    } else if (opcode == 0x9) {
+                        send(0xa, payload);
+                    } else if (opcode == 0x2) {
+                        audioSinceLastUtterance = true;
+                    } else if (opcode == 0x1) {
+                        control(new JsonParser().parse(new String(payload, StandardCharsets.UTF_8)).getAsJsonObject());
+                    }
+                }
+            } catch (IOException e) {
+                // The client hung up.
+            } finally {
+                if (utterances != null) {
+                    utterances.cancel(false);
+                }
+            }
+        }
+
+        private void control(JsonObject message) throws IOException {
+            String action = message.has("action") ? message.get("action").getAsString() : "";
+            if ("start".equals(action)) {
+                JsonArray requested = message.has("keywords") ? message.getAsJsonArray("keywords") : new JsonArray();
+                List<String> next = new ArrayList<>();
+                for (JsonElement keyword : requested) {
+                    next.add(keyword.getAsString());
+                }
+                if (utterances != null) {
+                    utterances.cancel(false);
+                }
+                keywords = Collections.unmodifiableList(next);
+                send(0x1, "{\"state\":\"listening\"}".getBytes(StandardCharsets.UTF_8));
+                utterances = timers.scheduleAtFixedRate(this::utter, UTTERANCE_MILLIS, UTTERANCE_MILLIS, TimeUnit.MILLISECONDS);
+            } else if ("stop".equals(action)) {
+                if (utterances != null) {
+                    utterances.cancel(false);
+                }
+                send(0x1, "{\"state\":\"listening\"}".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        /**
+         * Sends an interim and then a final hypothesis for the next keyword, each late by the latency.
+         */
+        private void utter() {
+            List<String> current = keywords;
+            if (!audioSinceLastUtterance || current.isEmpty()) {
+                return;
+            }
+            audioSinceLastUtterance = false;
+            int index = utterance++;
+            String keyword = current.get(index % current.size());
+            long interim = delayMillis();
+            timers.schedule(() -> result(index, keyword, false), interim, TimeUnit.MILLISECONDS);
+            timers.schedule(() -> result(index, keyword, true), interim + delayMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        private void result(int index, String keyword, boolean isFinal) {
+            JsonObject alternative = new JsonObject();
+            alternative.addProperty("transcript", keyword + " ");
+            alternative.addProperty("confidence", 0.9);
+            JsonArray alternatives = new JsonArray();
+            alternatives.add(alternative);
+            JsonObject transcript = new JsonObject();
+            transcript.addProperty("final", isFinal);
+            transcript.add("alternatives", alternatives);
+            if (isFinal) {
+                JsonObject spotted = new JsonObject();
+                spotted.addProperty("normalized_text", keyword);
+                spotted.addProperty("start_time", 0.0);
+                spotted.addProperty("end_time", 0.5);
+                spotted.addProperty("confidence", 0.9);
+                JsonArray matches = new JsonArray();
+                matches.add(spotted);
+                JsonObject keywordsResult = new JsonObject();
+                keywordsResult.add(keyword, matches);
+                transcript.add("keywords_result", keywordsResult);
+            }
+            JsonArray results = new JsonArray();
+            results.add(transcript);
+            JsonObject message = new JsonObject();
+            message.add("results", results);
+            message.addProperty("result_index", index);
+            try {
+                send(0x1, message.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                // The client hung up, the reader notices.
+            }
+        }
+
+        private byte[] readPayload() throws IOException {
+            int second = in.readUnsignedByte();
+            long length = second & 0x7f;
+            if (length == 126) {
+                length = in.readUnsignedShort();
+            } else if (length == 127) {
+                length = in.readLong();
+            }
+            if (length < 0 || length > MAX_FRAME_BYTES) {
+                send(0x8, new byte[] {(byte) (CLOSE_TOO_BIG >> 8), (byte) CLOSE_TOO_BIG});
+                throw new IOException("WebSocket frame of " + length + " bytes, the most is " + MAX_FRAME_BYTES);
+            }
+            byte[] mask = new byte[4];
+            if ((second & 0x80) != 0) {
+                in.readFully(mask);
+            }
+            byte[] payload = new byte[(int) length];
+            in.readFully(payload);
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] ^= mask[i & 3];
+            }
+            return payload;
+        }
+
+        private void send(int opcode, byte[] payload) throws IOException {
+            synchronized (out) {
+                out.write(0x80 | opcode);
+                if (payload.length < 126) {
+                    out.write(payload.length);
+                } else if (payload.length < 65536) {
+                    out.write(126);
+                    out.write(payload.length >> 8);
+                    out.write(payload.length);
+                } else {
+                    out.write(127);
+                    for (int shift = 56; shift >= 0; shift -= 8) {
+                        out.write((int) ((long) payload.length >> shift));
+                    }
+                }
+                out.write(payload);
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Silence as a WAV file, about as long as the text would take to say.
+     */
+    private static byte[] synthesize(String text) throws IOException {
+        int words = text.trim().isEmpty() ? 1 : text.trim().split("\\s+").length;
+        int frames = (int) (SYNTHESIS_FORMAT.getFrameRate() * SYNTHESIS_MILLIS_PER_WORD * words / 1000);
+        byte[] pcm = new byte[frames * SYNTHESIS_FORMAT.getFrameSize()];
+        ByteArrayOutputStream wave = new ByteArrayOutputStream(pcm.length + 44);
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(pcm), SYNTHESIS_FORMAT, frames),
+                AudioFileFormat.Type.WAVE, wave);
+        return wave.toByteArray();
+    }
+
+    private static void respond(OutputStream out, String contentType, byte[] body) throws IOException {
+        out.write(("HTTP/1.1 200 OK\r\nContent-Type: " + contentType + "\r\nContent-Length: " + body.length + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII));
+        out.write(body);
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                int end = line.length();
+                return end > 0 && line.charAt(end - 1) == '\r' ? line.substring(0, end - 1) : line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static Map<String, String> parameters(String query) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static String accept(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private long delayMillis() {
+        return latencyMillis + (jitterMillis == 0 ? 0 : ThreadLocalRandom.current().nextLong(jitterMillis + 1));
+    }
+
+    private Thread thread(Runnable r) {
+        Thread t = new Thread(r, "standin-" + threadIds.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static long millis(String env, long defaultMillis) {
+        String value = System.getenv(env);
+        return value == null ? defaultMillis : Long.parseLong(value);
+    }
+}
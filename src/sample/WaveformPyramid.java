@@ -0,0 +1,158 @@
+package sample;
+
+/**
+ * Minutes of waveform history as a min/max pyramid, like mipmaps for audio.
+ *
+ * Level 0 keeps the minimum and maximum of every {@value #BASE} samples, each level above halves
+ * the resolution, up to a level with only a few hundred buckets. Every level is a ring of
+ * primitive arrays over the same history window, so memory is fixed up front. Samples are folded
+ * into the pyramid as they arrive, and {@link #render} reads one level near the requested zoom,
+ * touching a couple of buckets per pixel however long the span on screen.
+ *
+ * @author naiemk
+ */
+public class WaveformPyramid {
+    public static final int BASE = 16;
+    private static final int TOP_BUCKETS = 512;
+
+    private final long historySamples;
+    private final float[][] min;
+    private final float[][] max;
+    private final long[] buckets;
+
+    // The bucket being filled on each level.
+    private final float[] partialMin;
+    private final float[] partialMax;
+    private final int[] partialCount;
+    private long samples;
+
+    public WaveformPyramid(long historySamples) {
+        this.historySamples = historySamples;
+        int levels = 1;
+        while (historySamples / bucketSize(levels - 1) > TOP_BUCKETS) {
+            levels++;
+        }
+        min = new float[levels][];
+        max = new float[levels][];
+        for (int level = 0; level < levels; level++) {
+            int capacity = (int) (historySamples / bucketSize(level)) + 1;
+            min[level] = new float[capacity];
+            max[level] = new float[capacity];
+        }
+        buckets = new long[levels];
+        partialMin = new float[levels];
+        partialMax = new float[levels];
+        partialCount = new int[levels];
+        for (int level = 0; level < levels; level++) {
+            reset(level);
+        }
+    }
+
+    /**
+     * Adds samples to the newest end of the history.
+     */
+    public synchronized void add(float[] data, int length) {
+        for (int i = 0; i < length; i++) {
+            float s = data[i];
+            if (s < partialMin[0]) {
+                partialMin[0] = s;
+            }
+            if (s > partialMax[0]) {
+                partialMax[0] = s;
+            }
+            if (++partialCount[0] == BASE) {
+                commit(0, partialMin[0], partialMax[0]);
+            }
+        }
+        samples += length;
+    }
+
+    /**
+     * Samples added so far.
+     */
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    /**
+     * How far back the history reaches, in samples.
+     */
+    public long getHistorySamples() {
+        return historySamples;
+    }
+
+    public int getLevels() {
+        return min.length;
+    }
+
+    /**
+     * Memory held by the rings.
+     */
+    public long getBytes() {
+        long bytes = 0;
+        for (float[] level : min) {
+            bytes += 2L * level.length * Float.BYTES;
+        }
+        return bytes;
+    }
+
+    /**
+     * Minimum and maximum per pixel of the {@code pixels * samplesPerPixel} samples that end at
+     * sample {@code end}. Pixels with nothing in the history get min > max.
+     */
+    public synchronized void render(long end, long samplesPerPixel, int pixels, float[] outMin, float[] outMax) {
+        int level = 0;
+        while (level + 1 < min.length && bucketSize(level + 1) <= samplesPerPixel) {
+            level++;
+        }
+        long size = bucketSize(level);
+        long newest = buckets[level];
+        long oldest = Math.max(0, newest - min[level].length);
+        int capacity = min[level].length;
+
+        long start = end - pixels * samplesPerPixel;
+        for (int p = 0; p < pixels; p++) {
+            long from = Math.max(oldest, Math.floorDiv(start + p * samplesPerPixel, size));
+            long to = Math.min(newest, Math.floorDiv(start + (p + 1) * samplesPerPixel - 1, size) + 1);
+            float lo = Float.POSITIVE_INFINITY;
+            float hi = Float.NEGATIVE_INFINITY;
+            for (long b = from; b < to; b++) {
+                int slot = (int) (b % capacity);
+                lo = Math.min(lo, min[level][slot]);
+                hi = Math.max(hi, max[level][slot]);
+            }
+            outMin[p] = lo;
+            outMax[p] = hi;
+        }
+    }
+
+    /**
+     * Stores a finished bucket and folds it into the level above.
+     */
+    private void commit(int level, float lo, float hi) {
+        int slot = (int) (buckets[level] % min[level].length);
+        min[level][slot] = lo;
+        max[level][slot] = hi;
+        buckets[level]++;
+        reset(level);
+
+        int up = level + 1;
+        if (up < min.length) {
+            partialMin[up] = Math.min(partialMin[up], lo);
+            partialMax[up] = Math.max(partialMax[up], hi);
+            if (++partialCount[up] == 2) {
+                commit(up, partialMin[up], partialMax[up]);
+            }
+        }
+    }
+
+    private void reset(int level) {
+        partialMin[level] = Float.POSITIVE_INFINITY;
+        partialMax[level] = Float.NEGATIVE_INFINITY;
+        partialCount[level] = 0;
+    }
+
+    private static long bucketSize(int level) {
+        return (long) BASE << level;
+    }
+}
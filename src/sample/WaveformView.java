@@ -0,0 +1,143 @@
+package sample;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.input.ScrollEvent;
+
+import java.util.Arrays;
+
+/**
+ * The waveform over the last minutes, drawn from a {@link WaveformPyramid}.
+ *
+ * The view follows the live audio until it is scrolled back. On its canvas the mouse wheel zooms,
+ * a horizontal or shift wheel scrolls through the history and a double click returns to live.
+ * Redrawing costs the same at any zoom, one pyramid lookup and one column of pixels per pixel.
+ * Everything except {@link #add} runs on the FX thread.
+ *
+ * @author naiemk
+ */
+public class WaveformView {
+    public static final String HISTORY_ENV = "BLUELOGUE_WAVEFORM_MINUTES";
+    public static final int DEFAULT_HISTORY_MINUTES = 5;
+    public static final long DEFAULT_SAMPLES_PER_PIXEL = 200;
+
+    private static final int BACKGROUND = 0xff000000;
+    private static final int WAVE = 0xffffffff;
+    private static final double ZOOM_STEP = 2;
+
+    private final WaveformPyramid pyramid;
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private final float[] lows;
+    private final float[] highs;
+    private final WritableImage image;
+
+    private long samplesPerPixel = DEFAULT_SAMPLES_PER_PIXEL;
+    private boolean live = true;
+    private long end;
+    private long drawnEnd = -1;
+    private long drawnSamplesPerPixel;
+
+    public WaveformView(int width, int height, long historySamples) {
+        this.pyramid = new WaveformPyramid(historySamples);
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+        this.lows = new float[width];
+        this.highs = new float[width];
+        this.image = new WritableImage(width, height);
+    }
+
+    /**
+     * A view keeping {@value #HISTORY_ENV} minutes, {@value #DEFAULT_HISTORY_MINUTES} if not set.
+     */
+    public static WaveformView fromEnvironment(int width, int height, float sampleRate) {
+        String minutes = System.getenv(HISTORY_ENV);
+        double history = minutes == null ? DEFAULT_HISTORY_MINUTES : Double.parseDouble(minutes);
+        return new WaveformView(width, height, (long) (history * 60 * sampleRate));
+    }
+
+    /**
+     * Appends samples, from any thread.
+     */
+    public void add(float[] samples, int length) {
+        pyramid.add(samples, length);
+    }
+
+    public WaveformPyramid getPyramid() {
+        return pyramid;
+    }
+
+    /**
+     * Zooms and scrolls with the mouse on the canvas.
+     */
+    public WaveformView attach(Canvas canvas) {
+        canvas.setOnScroll(this::scrolled);
+        canvas.setOnMouseClicked(e -> {
+            if (e.getClickCount() == 2) {
+                live = true;
+            }
+        });
+        return this;
+    }
+
+    /**
+     * More samples per pixel for factors above 1, within {@link WaveformPyramid#BASE} and the history.
+     */
+    public void zoom(double factor) {
+        long most = Math.max(WaveformPyramid.BASE, pyramid.getHistorySamples() / width);
+        samplesPerPixel = Math.max(WaveformPyramid.BASE, Math.min(most, Math.round(samplesPerPixel * factor)));
+    }
+
+    /**
+     * Moves the view back in time by that many pixels, forward for negative ones. Reaching the
+     * newest audio goes back to following it.
+     */
+    public void scroll(int pixels) {
+        long newest = pyramid.getSamples();
+        long oldest = Math.max(0, newest - pyramid.getHistorySamples()) + width * samplesPerPixel;
+        long from = live ? newest : end;
+        end = Math.max(Math.min(oldest, newest), from - pixels * samplesPerPixel);
+        live = end >= newest;
+    }
+
+    /**
+     * Draws the view if the audio or the zoom changed since the last frame.
+     */
+    public boolean paint(GraphicsContext g) {
+        long at = live ? pyramid.getSamples() : end;
+        if (at == drawnEnd && samplesPerPixel == drawnSamplesPerPixel) {
+            return false;
+        }
+        drawnEnd = at;
+        drawnSamplesPerPixel = samplesPerPixel;
+
+        pyramid.render(at, samplesPerPixel, width, lows, highs);
+        Arrays.fill(pixels, BACKGROUND);
+        for (int x = 0; x < width; x++) {
+            if (lows[x] > highs[x]) {
+                continue;
+            }
+            int top = Math.max(0, (int) (lows[x] * height + height / 2));
+            int bottom = Math.min(height - 1, (int) (highs[x] * height + height / 2));
+            for (int y = top; y <= bottom; y++) {
+                pixels[y * width + x] = WAVE;
+            }
+        }
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        g.drawImage(image, 0, 0);
+        return true;
+    }
+
+    private void scrolled(ScrollEvent e) {
+        double pan = e.getDeltaX() != 0 ? e.getDeltaX() : e.isShiftDown() ? e.getDeltaY() : 0;
+        if (pan != 0) {
+            scroll((int) Math.round(pan));
+        } else if (e.getDeltaY() != 0) {
+            zoom(e.getDeltaY() > 0 ? 1 / ZOOM_STEP : ZOOM_STEP);
+        }
+    }
+}